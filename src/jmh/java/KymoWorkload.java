@@ -0,0 +1,112 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.List;
+
+import ij.process.ByteProcessor;
+import kymo.bench.Workload;
+
+/**
+ * The stages of finding molecules, on a synthetic kymograph, for the benchmarks.
+ */
+public class KymoWorkload implements Workload {
+	static final int BIN_WIDTH = 5;
+
+	private int width;
+	private int height;
+	private Preprocessor preprocessor;
+	private byte[] source;
+	private byte[] preprocessed;
+	private final IntList xs = new IntList();
+	private final IntList ys = new IntList();
+	private List<FindSegments.Molecule> molecules;
+	private double[] durations;
+
+	@Override
+	public void setUp(int width, int height, double density, String preprocess, long seed) {
+		this.width = width;
+		this.height = height;
+		KymographGenerator generator = new KymographGenerator(width, height);
+		generator.density = density;
+		generator.seed = seed;
+		source = generator.render(0, height);
+
+		preprocessor = new Preprocessor(Preprocessor.Mode.valueOf(preprocess), Preprocessor.SIGMA, 1);
+		preprocessed = (byte[])preprocess();
+		PixelRows pixels = new PixelRows(preprocessed, width, height);
+		RowThreshold threshold = RowThreshold.defaults();
+		threshold.start(pixels);
+		for(int y = 0; y < height; y++) {
+			pixels.scan(y, threshold.get(y), (x, row, value) -> {
+				xs.add(x);
+				ys.add(row);
+			});
+		}
+		link();
+
+		durations = new double[molecules.size()];
+		for(int i = 0; i < durations.length; i++) {
+			PointList lines = molecules.get(i).getLines();
+			durations[i] = lines.y(lines.size() - 1) - lines.y(0);
+		}
+	}
+
+	@Override
+	public Object preprocess() {
+		ByteProcessor ip = new ByteProcessor(width, height, source.clone());
+		preprocessor.run(ip);
+		return ip.getPixels();
+	}
+
+	@Override
+	public int threshold() {
+		PixelRows pixels = new PixelRows(preprocessed, width, height);
+		RowThreshold threshold = RowThreshold.defaults();
+		threshold.start(pixels);
+		int[] count = new int[1];
+		for(int y = 0; y < height; y++) {
+			pixels.scan(y, threshold.get(y), (x, row, value) -> count[0]++);
+		}
+		return count[0];
+	}
+
+	@Override
+	public int link() {
+		Linker linker = new Linker(width, LinkSettings.DEFAULT);
+		int row = -1;
+		for(int i = 0; i < xs.size(); i++) {
+			int x = xs.get(i);
+			int y = ys.get(i);
+			if(y != row) {
+				linker.retire(y);
+				row = y;
+			}
+			linker.addPoint(x, y, preprocessed[y * width + x] & 0xff);
+		}
+		molecules = linker.molecules;
+		return molecules.size();
+	}
+
+	@Override
+	public int getLines() {
+		int numPoints = 0;
+		for(FindSegments.Molecule m: molecules) {
+			numPoints += m.getLines().size();
+		}
+		return numPoints;
+	}
+
+	@Override
+	public int frequency() {
+		DurationHistogram histogram = new DurationHistogram();
+		for(double duration: durations) {
+			histogram.add(duration);
+		}
+		return histogram.bins(DurationHistogram.Binning.FIXED, BIN_WIDTH).counts.length;
+	}
+}
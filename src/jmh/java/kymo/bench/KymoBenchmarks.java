@@ -0,0 +1,87 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+package kymo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times each stage of finding molecules on a synthetic kymograph.
+ * <p>
+ * Every stage starts from the output of the previous one, computed once in
+ * {@link #setUp()}, so a regression shows up in the stage that caused it.
+ * Sizes and densities are parameters, e.g.
+ * <code>-p width=1024 -p height=65536 -p density=0.1</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KymoBenchmarks {
+	@Param({"512"})
+	public int width;
+
+	@Param({"4096", "32768"})
+	public int height;
+
+	/* Molecules per column and 1000 rows */
+	@Param({"0.02", "0.1"})
+	public double density;
+
+	@Param({"FUSED"})
+	public String preprocess;
+
+	private Workload workload;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException {
+		workload = (Workload)Class.forName("KymoWorkload").getDeclaredConstructor().newInstance();
+		workload.setUp(width, height, density, preprocess, 42);
+	}
+
+	@Benchmark
+	public Object preprocess() {
+		return workload.preprocess();
+	}
+
+	@Benchmark
+	public int threshold() {
+		return workload.threshold();
+	}
+
+	@Benchmark
+	public int link() {
+		return workload.link();
+	}
+
+	@Benchmark
+	public int getLines() {
+		return workload.getLines();
+	}
+
+	@Benchmark
+	public int frequency() {
+		return workload.frequency();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+package kymo.bench;
+
+/**
+ * The stages of the Kymo pipeline run by {@link KymoBenchmarks}.
+ * <p>
+ * The plugin classes are in the default package, which JMH benchmarks and
+ * any other named package cannot refer to. They are reached through this
+ * interface, implemented by <code>KymoWorkload</code> in the default package.
+ * </p>
+ */
+public interface Workload {
+	/**
+	 * Renders a width x height kymograph with density molecules per column
+	 * and 1000 rows, and the inputs of every stage.
+	 *
+	 * @param preprocess the Preprocessor mode
+	 */
+	void setUp(int width, int height, double density, String preprocess, long seed);
+
+	/** @return the preprocessed pixels of a copy of the kymograph */
+	Object preprocess();
+
+	/** @return the number of pixels above the threshold of the preprocessed kymograph */
+	int threshold();
+
+	/** @return the number of molecules made by linking the pixels above the threshold */
+	int link();
+
+	/** @return the number of points of the lines of the linked molecules */
+	int getLines();
+
+	/** @return the number of bins of the durations of the linked molecules */
+	int frequency();
+}
@@ -0,0 +1,140 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+import ij.process.FloatPolygon;
+
+/**
+ * Joins the fragments of tracks of the ROI Manager across gaps.
+ * <p>
+ * Every ROI is a fragment; the joins are chosen all at once by a
+ * {@link FragmentLinker}, and the ROI Manager then holds the joined tracks,
+ * their points in time order, each one named after its first fragment.
+ * When a track file is given, its tracks are the fragments instead, and the
+ * joined tracks, intensities included, are written to the output track
+ * file, by default next to the input, without using the ROI Manager.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Join molecules automatically", menuPath = "Plugins>Kymo>Join molecules automatically")
+public class AutoJoin implements Command {
+	@Parameter
+	private RoiManager roiManager;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Max gap (rows)", min = "1")
+	private int maxGapRows = 10;
+
+	@Parameter(label = "Max gap (columns)", min = "1")
+	private double maxGapX = 5;
+
+	@Parameter(label = "Track file (optional)", required = false)
+	private File input;
+
+	@Parameter(label = "Joined track file (optional)", style = "save", required = false)
+	private File output;
+
+	public void run() {
+		long start = System.nanoTime();
+		List<String> names = new ArrayList<String>();
+		List<float[]> x = new ArrayList<float[]>();
+		List<float[]> y = new ArrayList<float[]>();
+		List<float[]> values = new ArrayList<float[]>();
+		boolean hasIntensity = false;
+		if(input != null) {
+			try(TrackReader reader = new TrackReader(input)) {
+				hasIntensity = reader.hasIntensity;
+				while(reader.next()) {
+					add(names, x, y, values, reader.name, reader.xs, reader.ys, reader.intensities, reader.size);
+				}
+			} catch(IOException e) {
+				log.error(e);
+				return;
+			}
+		} else {
+			for(Roi roi: roiManager.getRoisAsArray()) {
+				FloatPolygon polygon = roi.getFloatPolygon();
+				add(names, x, y, values, roi.getName(), polygon.xpoints, polygon.ypoints, null, polygon.npoints);
+			}
+		}
+		float[][] xs = x.toArray(new float[x.size()][]);
+		float[][] ys = y.toArray(new float[y.size()][]);
+		List<int[]> chains = FragmentLinker.chains(new FragmentLinker(maxGapRows, maxGapX).link(xs, ys));
+
+		List<PolygonRoi> joined = new ArrayList<PolygonRoi>(chains.size());
+		File file = output;
+		if(input != null && file == null) {
+			String name = input.getName();
+			int dot = name.lastIndexOf('.');
+			file = new File(input.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + "_joined" + TrackWriter.EXTENSION);
+		}
+		try(TrackWriter writer = input != null ? new TrackWriter(file, hasIntensity) : null) {
+			for(int[] chain: chains) {
+				int n = 0;
+				for(int f: chain) {
+					n += xs[f].length;
+				}
+				float[] cx = new float[n];
+				float[] cy = new float[n];
+				float[] cv = hasIntensity ? new float[n] : null;
+				n = 0;
+				for(int f: chain) {
+					System.arraycopy(xs[f], 0, cx, n, xs[f].length);
+					System.arraycopy(ys[f], 0, cy, n, ys[f].length);
+					if(cv != null)
+						System.arraycopy(values.get(f), 0, cv, n, xs[f].length);
+					n += xs[f].length;
+				}
+				if(writer != null) {
+					writer.write(names.get(chain[0]), cx, cy, n, cv);
+				} else {
+					PolygonRoi roi = new PolygonRoi(new FloatPolygon(cx, cy, n), Roi.POLYLINE);
+					roi.setName(names.get(chain[0]));
+					joined.add(roi);
+				}
+			}
+		} catch(IOException e) {
+			log.error(e);
+			return;
+		}
+		log.info(String.format("Joined %d fragments into %d tracks in %.1f ms",
+				xs.length, chains.size(), (System.nanoTime() - start) / 1e6));
+
+		if(input == null) {
+			roiManager.reset();
+			FindSegments.addRois(roiManager, joined);
+		}
+	}
+
+	/* Adds a fragment, its points sorted by row */
+	private static void add(List<String> names, List<float[]> x, List<float[]> y, List<float[]> values,
+			String name, float[] xs, float[] ys, float[] intensities, int n) {
+		float[][] sorted = FragmentLinker.sortByRow(xs, ys, intensities, n);
+		names.add(name);
+		x.add(sorted[0]);
+		y.add(sorted[1]);
+		values.add(sorted[2]);
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.PolygonRoi;
+
+/**
+ * Find molecules in every kymograph of a directory, without any window.
+ * <p>
+ * Files are handed to a work-stealing pool. Before opening a file a worker
+ * reserves an estimate of the memory it needs, so big kymographs wait for
+ * memory instead of running out of it. The ROIs of each kymograph are saved
+ * next to the others as a RoiManager zip, and the durations of all of them
+ * in a single CSV file.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Find Molecules in directory", menuPath = "Plugins>Kymo>Find Molecules in directory", headless = true)
+public class BatchFindSegments implements Command {
+	/* Working copies made while finding molecules, relative to the file size */
+	static final int MEMORY_FACTOR = 4;
+
+	@Parameter(label = "Kymographs directory", style = "directory")
+	private File input;
+
+	@Parameter(label = "Output directory", style = "directory")
+	private File output;
+
+	@Parameter(label = "Workers (0 to use the ImageJ threads setting)", min = "0")
+	private int workers = 0;
+
+	@Parameter
+	private LogService log;
+
+	public void run() {
+		File[] files = input.listFiles(f -> f.isFile() && !f.isHidden());
+		if(files == null) {
+			log.error("Not a directory: " + input);
+			return;
+		}
+		Arrays.sort(files);
+		output.mkdirs();
+
+		int threads = workers > 0 ? workers : Prefs.getThreads();
+		int budget = (int)Math.max(1, Runtime.getRuntime().maxMemory() * 3 / 4 / (1 << 20));
+		Semaphore memory = new Semaphore(budget);
+		log.info("Finding molecules in " + files.length + " files with " + threads + " workers, " + budget + " MB");
+
+		ExecutorService pool = Executors.newWorkStealingPool(threads);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for(File file: files) {
+			results.add(pool.submit(() -> process(file, memory, budget)));
+		}
+		try(PrintWriter csv = new PrintWriter(new File(output, "durations.csv"), "UTF-8")) {
+			csv.println("file,molecule,duration,Length(x)");
+			for(int i = 0; i < files.length; i++) {
+				try {
+					csv.print(results.get(i).get());
+				} catch(Exception e) {
+					log.error("Failed on " + files[i], e);
+				}
+			}
+		} catch(IOException e) {
+			log.error(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the CSV lines of the molecules of file
+	 */
+	private String process(File file, Semaphore memory, int budget) throws Exception {
+		int needed = (int)Math.min(budget, Math.max(1, file.length() * MEMORY_FACTOR >> 20));
+		memory.acquire(needed);
+		try {
+			ImagePlus imp = IJ.openImage(file.getPath());
+			if(imp == null) {
+				log.warn("Skipping " + file.getName());
+				return "";
+			}
+			FindSegments finder = new FindSegments();
+			finder.imp = imp;
+			finder.log = log;
+			/* Files are already processed in parallel */
+			finder.parallel = false;
+			finder.threads = 1;
+			List<PolygonRoi> rois = finder.findMolecules();
+			imp.flush();
+
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			String base = dot > 0 ? name.substring(0, dot) : name;
+			saveRois(new File(output, base + "_rois.zip"), rois);
+
+			StringBuilder lines = new StringBuilder();
+			for(PolygonRoi roi: rois) {
+				Rectangle bounds = roi.getBounds();
+				lines.append(quote(name)).append(',').append(quote(roi.getName())).append(',')
+					.append(bounds.getHeight()).append(',').append(bounds.getWidth()).append('\n');
+			}
+			finder.stats.log(log, name);
+			return lines.toString();
+		} finally {
+			memory.release(needed);
+		}
+	}
+
+	/**
+	 * @return field quoted for CSV, its quotes doubled
+	 */
+	static String quote(String field) {
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * @return the fields of a CSV line, quoted ones unquoted, as written by
+	 *         {@link #quote(String)}
+	 */
+	static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if(quoted) {
+				if(c != '"') {
+					field.append(c);
+				} else if(i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append(c);
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if(c == '"') {
+				quoted = true;
+			} else if(c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	/**
+	 * Writes rois in the zip format of the RoiManager.
+	 */
+	static void saveRois(File file, List<PolygonRoi> rois) throws IOException {
+		try(RoiZipWriter writer = new RoiZipWriter(file)) {
+			for(PolygonRoi roi: rois) {
+				writer.write(roi);
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.process.FloatPolygon;
+
+/**
+ * Checks that {@link StripDetector} finds exactly the molecules of the
+ * sequential scan on a synthetic kymograph.
+ * <p>
+ * The image is preprocessed once, then linked row by row and by
+ * {@link StripDetector} with 1 to the given number of threads, that is with
+ * more and more strips. The molecules are compared id by id, their number of
+ * points, last row and line point for point, then their conflicts, and the
+ * ROIs of "Find Molecules" with and without the parallel option are compared
+ * point for point. The molecules and conflicts spanning a seam between
+ * strips are counted, as these are the ones the merging of the strips
+ * decides on: a dense kymograph has many.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Check parallel detection", menuPath = "Plugins>Kymo>Check parallel detection", headless = true)
+public class CheckParallelDetection implements Command {
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Width", min = "1")
+	private int width = 512;
+
+	@Parameter(label = "Height", min = "1")
+	private int height = 4096;
+
+	@Parameter(label = "Molecules per column and 1000 rows")
+	private double density = 0.5;
+
+	@Parameter(label = "Diffusion (pixels^2/row)")
+	private double diffusion = 0.05;
+
+	@Parameter(label = "Seed")
+	private long seed = 1;
+
+	@Parameter(label = "Max threads", min = "1")
+	private int maxThreads = 16;
+
+	public void run() {
+		KymographGenerator generator = new KymographGenerator(width, height);
+		generator.density = density;
+		generator.diffusion = diffusion;
+		generator.seed = seed;
+		generator.generate();
+		ImagePlus imp = generator.toImage();
+		Preprocessor.fromPrefs(maxThreads).run(imp.getProcessor());
+		PixelRows pixels = new PixelRows(imp.getProcessor());
+		RowThreshold threshold = RowThreshold.fromPrefs();
+		LinkSettings settings = LinkSettings.fromPrefs();
+		threshold.start(pixels);
+
+		try {
+			/* Sequential scan, recording the first row of each molecule */
+			Linker reference = new Linker(width, settings);
+			IntList firstY = new IntList();
+			RowThreshold t = threshold.copy();
+			PixelRows.PointConsumer link = (x, y, value) -> {
+				reference.addPoint(x, y, value);
+				while(firstY.size() < reference.molecules.size()) {
+					firstY.add(y);
+				}
+			};
+			for(int y = 0; y < height; y++) {
+				reference.retire(y);
+				pixels.scan(y, t.get(y), link);
+			}
+			log.info(reference.molecules.size() + " molecules, " + reference.conflicts.numConflicts() + " conflicts");
+
+			int failures = 0;
+			for(int threads = 1; threads <= maxThreads; threads++) {
+				StripDetector detector = new StripDetector(pixels, threshold, settings, threads);
+				List<FindSegments.Molecule> molecules = new ArrayList<FindSegments.Molecule>();
+				ConflictResolver conflicts = new ConflictResolver();
+				detector.detect(molecules, conflicts);
+				String difference = compare(reference.molecules, reference.conflicts, molecules, conflicts);
+
+				/* Molecules, and conflicting pairs, started above a seam and extended below it */
+				int numStrips = detector.numStrips();
+				int spanning = 0, spanningConflicts = 0;
+				for(int s = 1; s < numStrips; s++) {
+					int seam = detector.stripStart(s, numStrips);
+					for(FindSegments.Molecule m: reference.molecules) {
+						if(firstY.get(m.id) < seam && m.lastY >= seam)
+							spanning++;
+						for(int other: reference.conflicts.conflicts(m.id)) {
+							FindSegments.Molecule o = reference.molecules.get(other);
+							if(other > m.id && Math.min(firstY.get(m.id), firstY.get(other)) < seam
+									&& Math.min(m.lastY, o.lastY) >= seam)
+								spanningConflicts++;
+						}
+					}
+				}
+				String strips = numStrips + " strips, " + spanning + " molecules and "
+						+ spanningConflicts + " conflicts spanning a seam";
+				if(difference != null) {
+					failures++;
+					log.error(strips + ": " + difference);
+				} else {
+					log.info(strips + ": equal");
+				}
+			}
+
+			FindSegments sequential = new FindSegments();
+			sequential.log = log;
+			sequential.parallel = false;
+			List<PolygonRoi> expected = sequential.findMolecules(pixels);
+			FindSegments parallel = new FindSegments();
+			parallel.log = log;
+			parallel.parallel = true;
+			parallel.threads = maxThreads;
+			String difference = compare(expected, parallel.findMolecules(pixels));
+			if(difference != null) {
+				failures++;
+				log.error("ROIs: " + difference);
+			} else {
+				log.info(expected.size() + " ROIs: equal");
+			}
+
+			if(failures > 0)
+				log.error("Parallel detection differs from the sequential scan in " + failures + " checks");
+			else
+				log.info("Parallel detection gives the molecules of the sequential scan");
+		} catch(Exception e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * @return the first difference between the molecules and conflicts, or
+	 *         null when they are the same
+	 */
+	static String compare(List<FindSegments.Molecule> expected, ConflictResolver expectedConflicts,
+			List<FindSegments.Molecule> actual, ConflictResolver actualConflicts) {
+		if(expected.size() != actual.size())
+			return actual.size() + " molecules instead of " + expected.size();
+		for(int id = 0; id < expected.size(); id++) {
+			FindSegments.Molecule e = expected.get(id);
+			FindSegments.Molecule a = actual.get(id);
+			if(a.id != e.id || a.numPoints != e.numPoints || a.lastY != e.lastY)
+				return "molecule " + id + " has " + a.numPoints + " points to row " + a.lastY
+						+ " instead of " + e.numPoints + " to row " + e.lastY;
+			PointList el = e.getLines();
+			PointList al = a.getLines();
+			if(el.size() != al.size())
+				return "molecule " + id + " has " + al.size() + " line points instead of " + el.size();
+			for(int i = 0; i < el.size(); i++) {
+				if(al.x(i) != el.x(i) || al.y(i) != el.y(i))
+					return "molecule " + id + " point " + i + " is " + al.x(i) + "," + al.y(i)
+							+ " instead of " + el.x(i) + "," + el.y(i);
+			}
+			int[] ec = expectedConflicts.conflicts(id);
+			int[] ac = actualConflicts.conflicts(id);
+			if(!Arrays.equals(ec, ac))
+				return "molecule " + id + " conflicts with " + Arrays.toString(ac) + " instead of " + Arrays.toString(ec);
+		}
+		if(expectedConflicts.numConflicts() != actualConflicts.numConflicts())
+			return actualConflicts.numConflicts() + " conflicts instead of " + expectedConflicts.numConflicts();
+		return null;
+	}
+
+	/**
+	 * @return the first difference between the ROIs, or null when they are
+	 *         the same point for point
+	 */
+	static String compare(List<PolygonRoi> expected, List<PolygonRoi> actual) {
+		if(expected.size() != actual.size())
+			return actual.size() + " ROIs instead of " + expected.size();
+		for(int i = 0; i < expected.size(); i++) {
+			FloatPolygon e = expected.get(i).getFloatPolygon();
+			FloatPolygon a = actual.get(i).getFloatPolygon();
+			if(e.npoints != a.npoints
+					|| !Arrays.equals(Arrays.copyOf(e.xpoints, e.npoints), Arrays.copyOf(a.xpoints, a.npoints))
+					|| !Arrays.equals(Arrays.copyOf(e.ypoints, e.npoints), Arrays.copyOf(a.ypoints, a.npoints)))
+				return "ROI " + i + " " + actual.get(i).getName() + " differs from " + expected.get(i).getName();
+		}
+		return null;
+	}
+}
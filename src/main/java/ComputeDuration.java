@@ -7,12 +7,14 @@
  */
 
 import java.awt.Rectangle;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
@@ -54,6 +56,7 @@ import org.scijava.command.Command;
 import org.scijava.command.CommandModule;
 import org.scijava.command.CommandService;
 import org.scijava.convert.ConvertService;
+import org.scijava.log.LogService;
 import org.scijava.options.OptionsService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -61,6 +64,7 @@ import org.scijava.ui.UIService;
 import org.scijava.util.Colors;
 
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.gui.PointRoi;
 import ij.gui.PolygonRoi;
@@ -74,6 +78,13 @@ import io.scif.jj2000.j2k.roi.encoder.ROIMaskGenerator;
 /**
  * Compute duration from ROI manager
  * <p>
+ * All the ROIs are measured at once, in parallel, by
+ * {@link TrackMeasurements}: duration, length, velocity and path length, and
+ * the mean intensity under the track when an image is open. When a track
+ * file is given, its tracks are measured as they are read instead of the
+ * ROIs, with the intensities it holds if no image is open.
+ * </p>
+ * <p>
  * <b>Please note that this API is <em>not</em> stable and will almost certainly
  * change prior to the final <code>2.0.0</code> release!</b>
  * </p>
@@ -84,28 +95,43 @@ public class ComputeDuration extends AbstractOp {
     @Parameter
     private RoiManager roiManager;
 
+    @Parameter(required = false)
+    private ImagePlus image;
+
+    @Parameter(label = "Track file (optional)", required = false)
+    private File tracks;
+
+    @Parameter
+    private LogService log;
+
     public void run() {
-        //RoiManager roiManager = new RoiManager();
+        long start = System.nanoTime();
+        PixelRows pixels = null;
+        if(image != null) {
+        	try {
+        		pixels = new PixelRows(image.getProcessor());
+        	} catch(IllegalArgumentException e) {
+        		log.warn("Cannot read the intensities of " + image.getTitle() + ": " + e.getMessage());
+        	}
+        }
+        TrackMeasurements measurements;
+        try {
+        	if(tracks != null) {
+        		measurements = TrackMeasurements.read(tracks, pixels);
+        	} else {
+        		measurements = TrackMeasurements.measure(roiManager.getRoisAsArray(), pixels, Prefs.getThreads());
+        	}
+        } catch(IOException | InterruptedException | ExecutionException e) {
+        	log.error(e);
+        	return;
+        }
+        ResultsTable table = measurements.toTable();
+		log.info(String.format("Measured %d molecules in %.1f ms", measurements.size(), (System.nanoTime() - start) / 1e6));
 
-        ResultsTable table = new ResultsTable();
-        
-        //Roi[] rois = roiManager.getRois();
-        int numMols = 0;
-        for(numMols = 0; numMols<roiManager.getCount(); numMols++) {
-        	Roi roi = roiManager.getRoi(numMols);
-			//numMols++;
-        	Rectangle rect = roi.getBounds();
-        	
-			System.out.println("New molecule");
-            table.incrementCounter();
-            table.setLabel(roi.getName(), numMols);
-			table.addValue("duration", rect.getHeight());
-			table.addValue("Length (x)", roi.getFloatWidth());
+		if(tracks == null) {
+			roiManager.runCommand("Show All");
+			roiManager.deselect();
 		}
-		System.out.println("Found " + numMols + " molecules");
-
-		roiManager.runCommand("Show All");
-		roiManager.deselect();
 		table.show("Durations");
 	}
 	
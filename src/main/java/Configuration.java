@@ -6,137 +6,89 @@
  *     https://unlicense.org/
  */
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-
-import net.imagej.ChannelCollection;
-import net.imagej.Dataset;
-import net.imagej.ImageJ;
-import net.imagej.axis.Axes;
-import net.imagej.axis.AxisType;
-import net.imagej.display.ImageDisplay;
-import net.imagej.display.OverlayService;
-import net.imagej.ops.AbstractOp;
-import net.imagej.ops.Op;
-import net.imagej.options.OptionsChannels;
-import net.imagej.overlay.EllipseOverlay;
-import net.imagej.overlay.LineOverlay;
-import net.imagej.overlay.Overlay;
-import net.imagej.overlay.PointOverlay;
-import net.imagej.overlay.RectangleOverlay;
-import net.imagej.overlay.TextOverlay;
-import net.imagej.roi.ROIService;
-import net.imglib2.Point;
-import net.imglib2.RandomAccess;
-import net.imglib2.RealLocalizable;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgFactory;
-import net.imglib2.roi.geom.real.DefaultWritablePointMask;
-import net.imglib2.roi.geom.real.DefaultWritableRealPointCollection;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-
 import org.scijava.command.Command;
-import org.scijava.options.OptionsService;
-import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
-import org.scijava.ui.UIService;
-import org.scijava.util.Colors;
 
-import ij.IJ;
-import ij.ImagePlus;
 import ij.Prefs;
-import ij.WindowManager;
 import ij.gui.GenericDialog;
-import ij.gui.Line;
-import ij.gui.MessageDialog;
-import ij.gui.PointRoi;
-import ij.gui.PolygonRoi;
-import ij.gui.Roi;
-import ij.gui.TextRoi;
-import ij.plugin.RoiRotator;
-import ij.plugin.frame.RoiManager;
-import ij.process.FloatPolygon;
-import io.scif.jj2000.j2k.roi.encoder.ROIMaskGenerator;
 
 /**
- * Adds ROIs to a display.
+ * Edits the settings of Find Molecules, kept in the ImageJ preferences.
+ * <p>
+ * Every command finding molecules reads them when it starts: preprocessing,
+ * threshold, linking, localization, and the caches. The defaults are those
+ * the settings had when they were fixed in the code.
+ * </p>
  * <p>
  * <b>Please note that this API is <em>not</em> stable and will almost certainly
  * change prior to the final <code>2.0.0</code> release!</b>
  * </p>
  */
-@Plugin(type = Op.class, menuPath = "Plugins>Kymo>Configuration")
-public class Configuration extends AbstractOp {
-	
-    
-    public void run() {
-    	Prefs.get("kymo.pixel_duration", 60);
-    	
-    	
-    	GenericDialog gd = new GenericDialog("Add Legent");
-    	int width=5;
-    	String tpf="50 ms";
-        int height=5;
-        String scale="200 um";
-        int fontSize = 8;
-        int lineWidth = Line.getWidth();
-        
-        gd.addNumericField("Font size: ", fontSize, 0);
-        gd.addNumericField("Legend width: ", lineWidth, 0);
-        
-        gd.addStringField("X legend: ", scale, 0);
-        gd.addNumericField("Legend width: ", width, 0);
-        
-        gd.addStringField("Y legend: ", tpf, 0);
-        gd.addNumericField("Legend height: ", height, 0);
-        
-        gd.showDialog();
-        if (gd.wasCanceled()) return;
-        
-        fontSize = (int)gd.getNextNumber();
-        lineWidth = (int)gd.getNextNumber();
-        
-        scale = gd.getNextString();
-        width = (int)gd.getNextNumber();
-        
-        tpf = gd.getNextString();
-        height = (int)gd.getNextNumber();
-        
-    	//gd = new GenericDialog("Add Legent");
-    	//gd.addMessage("Not implemented");
-    	//gd.showDialog();
-    	
+@Plugin(type = Command.class, name="Configuration", menuPath = "Plugins>Kymo>Configuration")
+public class Configuration implements Command {
+
+	public void run() {
+		LinkSettings link = LinkSettings.fromPrefs();
+		GenericDialog gd = new GenericDialog("Kymo configuration");
+
+		gd.addMessage("Preprocessing");
+		gd.addChoice("Mode: ", names(Preprocessor.Mode.values()), Prefs.get("kymo.preprocess", Preprocessor.Mode.IMAGEJ.name()));
+		gd.addNumericField("Background sigma: ", Prefs.get("kymo.sigma", Preprocessor.SIGMA), 1);
+
+		gd.addMessage("Threshold");
+		gd.addChoice("Threshold mode: ", names(RowThreshold.Mode.values()), Prefs.get("kymo.threshold.mode", RowThreshold.Mode.FIXED.name()));
+		gd.addNumericField("Fixed threshold: ", Prefs.get("kymo.threshold", RowThreshold.THRESHOLD), 1);
+		gd.addNumericField("Background percentile: ", Prefs.get("kymo.threshold.percentile", RowThreshold.PERCENTILE), 1);
+		gd.addNumericField("Background factor: ", Prefs.get("kymo.threshold.factor", RowThreshold.FACTOR), 2);
+		gd.addNumericField("Rows in histogram: ", Prefs.get("kymo.threshold.window", 1), 0);
+
+		gd.addMessage("Linking");
+		gd.addNumericField("Max blank rows: ", link.maxYBlank, 0);
+		gd.addNumericField("Max blank columns: ", link.maxXBlank, 0);
+		gd.addNumericField("Min length (points): ", link.minYLen, 0);
+		gd.addNumericField("Max line jump: ", link.maxJump, 0);
+		gd.addNumericField("Max line jump on last row: ", link.maxEndJump, 0);
+		gd.addChoice("Localization: ", names(Localizer.Mode.values()), Prefs.get("kymo.localize", Localizer.Mode.NONE.name()));
+		gd.addCheckbox("Link in parallel", Prefs.get("kymo.parallel", false));
+		gd.addCheckbox("Debug image", Prefs.get("kymo.debug", false));
+
+		gd.addMessage("Caches");
+		gd.addNumericField("Memory cache (MB): ", Prefs.get("kymo.cache.mb", 256), 0);
+		gd.addDirectoryField("Disk cache (empty for none): ", Prefs.get("kymo.diskcache.dir", ""));
+		gd.addNumericField("Disk cache (MB): ", Prefs.get("kymo.diskcache.mb", 2048), 0);
+
+		gd.showDialog();
+		if (gd.wasCanceled()) return;
+
+		Prefs.set("kymo.preprocess", gd.getNextChoice());
+		Prefs.set("kymo.sigma", gd.getNextNumber());
+
+		Prefs.set("kymo.threshold.mode", gd.getNextChoice());
+		Prefs.set("kymo.threshold", gd.getNextNumber());
+		Prefs.set("kymo.threshold.percentile", gd.getNextNumber());
+		Prefs.set("kymo.threshold.factor", gd.getNextNumber());
+		Prefs.set("kymo.threshold.window", (int)gd.getNextNumber());
 
-    	ij.gui.Overlay overlay = new ij.gui.Overlay();
-        ImagePlus imp = IJ.getImage();
-        
-        int imageWidth = imp.getWidth();
-    	int imageHeight = imp.getHeight();
+		Prefs.set("kymo.link.y_blank", (int)gd.getNextNumber());
+		Prefs.set("kymo.link.x_blank", (int)gd.getNextNumber());
+		Prefs.set("kymo.min_length", (int)gd.getNextNumber());
+		Prefs.set("kymo.lines.jump", (int)gd.getNextNumber());
+		Prefs.set("kymo.lines.end_jump", (int)gd.getNextNumber());
+		Prefs.set("kymo.localize", gd.getNextChoice());
+		Prefs.set("kymo.parallel", gd.getNextBoolean());
+		Prefs.set("kymo.debug", gd.getNextBoolean());
 
-    	int bottomLeftX = 5+fontSize;
-    	int bottomLeftY = imageHeight - 25;
-    	
-    	TextRoi.setFont(TextRoi.getDefaultFontName(), fontSize, TextRoi.getDefaultFontStyle());
-    	Line.setWidth(lineWidth);
-    	
-    	TextRoi xLegend = new TextRoi(bottomLeftX, bottomLeftY, scale);
-		overlay.add(xLegend);
-    	overlay.add(new Line(bottomLeftX, bottomLeftY, bottomLeftX+width, bottomLeftY));
-    	
-    	TextRoi yLegend = new TextRoi(0, bottomLeftY, tpf);
-    	yLegend.setRotationCenter(0, bottomLeftY);
-    	yLegend.setAngle(90);
-        //overlay.add(RoiRotator.rotate(yLegend, -90));
-    	overlay.add(yLegend);
-    	overlay.add(new Line(bottomLeftX, bottomLeftY, bottomLeftX, bottomLeftY - height));
-    	
-        imp.setOverlay(overlay);
+		Prefs.set("kymo.cache.mb", (int)gd.getNextNumber());
+		Prefs.set("kymo.diskcache.dir", gd.getNextString().trim());
+		Prefs.set("kymo.diskcache.mb", (int)gd.getNextNumber());
+		Prefs.savePreferences();
+	}
 
-    	//display.update();
-    }
-    
-	
+	private static String[] names(Enum<?>[] values) {
+		String[] names = new String[values.length];
+		for(int i = 0; i < values.length; i++) {
+			names[i] = values[i].name();
+		}
+		return names;
+	}
 }
@@ -0,0 +1,253 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Records molecules sharing pixels and decides which ones to keep.
+ * <p>
+ * Overlapping molecules are grouped with a disjoint-set (union-find) over
+ * molecule ids. A molecule is kept when none of the molecules it directly
+ * shares a pixel with is bigger, which is the historical "biggest wins" rule;
+ * {@link #dominant(int)} gives the biggest molecule of a whole group.
+ * </p>
+ * <p>
+ * Each group also counts its molecules still being linked, so that a
+ * streaming detection can decide on a group as soon as it is complete, then
+ * {@link #release(int)} it: the ids and the conflicts of a released group
+ * are given again to new molecules, so memory depends on the molecules
+ * open at once, not on the image. A pair of molecules is recorded once,
+ * whatever the number of pixels they share.
+ * </p>
+ */
+class ConflictResolver {
+	private int[] parent = new int[64];
+	private byte[] rank = new byte[64];
+	/* Circular list of the members of each group */
+	private int[] nextMember = new int[64];
+	/* Molecules of the group still open, valid for roots */
+	private int[] open = new int[64];
+	private int count;
+
+	/* Adjacency lists of the conflicting pairs */
+	private int[] firstEdge = new int[64];
+	private int[] edgeTarget = new int[128];
+	private int[] nextEdge = new int[128];
+	/* Pairs of edges used, some of them maybe released */
+	private int numEdges;
+	private int numConflicts;
+
+	/* Ids and pairs of edges of released groups */
+	private final IntList freeIds = new IntList();
+	private final IntList freeEdges = new IntList();
+
+	private boolean[] biggest;
+	private int[] dominant;
+	private int numGroups;
+
+	/**
+	 * Registers a new open molecule.
+	 *
+	 * @return the id of the molecule, ids are given in sequence from 0, the
+	 *         ids of released groups first
+	 */
+	int add() {
+		if(freeIds.size() > 0) {
+			int id = freeIds.removeLast();
+			init(id);
+			return id;
+		}
+		if(count == parent.length) {
+			int length = count * 2;
+			parent = Arrays.copyOf(parent, length);
+			rank = Arrays.copyOf(rank, length);
+			nextMember = Arrays.copyOf(nextMember, length);
+			open = Arrays.copyOf(open, length);
+			firstEdge = Arrays.copyOf(firstEdge, length);
+		}
+		init(count);
+		return count++;
+	}
+
+	private void init(int id) {
+		parent[id] = id;
+		rank[id] = 0;
+		nextMember[id] = id;
+		open[id] = 1;
+		firstEdge[id] = -1;
+	}
+
+	/**
+	 * @return the number of ids given, released ones included
+	 */
+	int size() {return count;}
+
+	void conflict(int a, int b) {
+		/* The pair sharing the last pixels is usually the last one added */
+		for(int e = firstEdge[a]; e >= 0; e = nextEdge[e]) {
+			if(edgeTarget[e] == b)
+				return;
+		}
+		int pair;
+		if(freeEdges.size() > 0) {
+			pair = freeEdges.removeLast();
+		} else {
+			if(2 * numEdges + 2 > edgeTarget.length) {
+				edgeTarget = Arrays.copyOf(edgeTarget, edgeTarget.length * 2);
+				nextEdge = Arrays.copyOf(nextEdge, nextEdge.length * 2);
+			}
+			pair = numEdges++;
+		}
+		addEdge(pair, a, b);
+		addEdge(pair, b, a);
+		numConflicts++;
+		union(a, b);
+	}
+
+	/* The edge from the smaller id is the even one of the pair */
+	private void addEdge(int pair, int from, int to) {
+		int e = 2 * pair + (from < to ? 0 : 1);
+		edgeTarget[e] = to;
+		nextEdge[e] = firstEdge[from];
+		firstEdge[from] = e;
+	}
+
+	/**
+	 * @return the number of pairs of molecules sharing pixels
+	 */
+	int numConflicts() {return numConflicts;}
+
+	int find(int id) {
+		int root = id;
+		while(parent[root] != root) {
+			root = parent[root];
+		}
+		while(parent[id] != root) {
+			int next = parent[id];
+			parent[id] = root;
+			id = next;
+		}
+		return root;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a);
+		int rb = find(b);
+		if(ra == rb)
+			return;
+		if(rank[ra] < rank[rb]) {
+			int swap = ra;
+			ra = rb;
+			rb = swap;
+		} else if(rank[ra] == rank[rb]) {
+			rank[ra]++;
+		}
+		parent[rb] = ra;
+		open[ra] += open[rb];
+		int next = nextMember[ra];
+		nextMember[ra] = nextMember[rb];
+		nextMember[rb] = next;
+	}
+
+	/**
+	 * Marks molecule id as complete.
+	 *
+	 * @return true if its whole group is complete
+	 */
+	boolean close(int id) {
+		return --open[find(id)] == 0;
+	}
+
+	/**
+	 * Forgets the complete group of id, whose ids and conflicts will be
+	 * given to new molecules.
+	 */
+	void release(int id) {
+		int member = id;
+		do {
+			for(int e = firstEdge[member]; e >= 0; e = nextEdge[e]) {
+				if((e & 1) == 0)
+					freeEdges.add(e >> 1);
+			}
+			freeIds.add(member);
+			member = nextMember[member];
+		} while(member != id);
+	}
+
+	/**
+	 * @return the molecules sharing a pixel with id, sorted
+	 */
+	int[] conflicts(int id) {
+		IntList ids = new IntList();
+		for(int e = firstEdge[id]; e >= 0; e = nextEdge[e]) {
+			ids.add(edgeTarget[e]);
+		}
+		ids.sortDistinct(0);
+		return ids.toArray();
+	}
+
+	/**
+	 * @return the next member of the group of id, members forming a cycle
+	 */
+	int nextMember(int id) {return nextMember[id];}
+
+	/**
+	 * @param sizes number of points of each molecule, indexed by id
+	 * @return true if no molecule sharing a pixel with id is bigger
+	 */
+	boolean isBiggest(int id, IntUnaryOperator sizes) {
+		int size = sizes.applyAsInt(id);
+		for(int e = firstEdge[id]; e >= 0; e = nextEdge[e]) {
+			if(sizes.applyAsInt(edgeTarget[e]) > size)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the decision for every molecule from their final sizes.
+	 *
+	 * @param sizes number of points of each molecule, indexed by id
+	 */
+	void resolve(int[] sizes) {
+		IntUnaryOperator size = id -> sizes[id];
+		biggest = new boolean[count];
+		dominant = new int[count];
+		Arrays.fill(dominant, -1);
+		numGroups = 0;
+		for(int id = 0; id < count; id++) {
+			biggest[id] = isBiggest(id, size);
+			int root = find(id);
+			int best = dominant[root];
+			if(best < 0) {
+				numGroups++;
+			}
+			if(best < 0 || sizes[id] > sizes[best]) {
+				dominant[root] = id;
+			}
+		}
+	}
+
+	/**
+	 * @return true if no molecule sharing a pixel with this one is bigger
+	 */
+	boolean isBiggest(int id) {return biggest[id];}
+
+	/**
+	 * @return the biggest molecule of the group of overlapping molecules id
+	 *         belongs to, the first one found on ties
+	 */
+	int dominant(int id) {return dominant[find(id)];}
+
+	/**
+	 * @return the number of groups of overlapping molecules, isolated
+	 *         molecules included
+	 */
+	int numGroups() {return numGroups;}
+}
@@ -0,0 +1,118 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.Prefs;
+
+/**
+ * Results of the first stages of finding molecules, kept between runs.
+ * <p>
+ * Entries are keyed by a hash of the image content and the settings of the
+ * stages that made them: preprocessed pixels by the preprocessing settings,
+ * candidate pixels by those and the threshold settings. Changing only the
+ * linking then reruns linking alone. The least recently used entries are
+ * dropped when the cache exceeds its size, <code>kymo.cache.mb</code>
+ * megabytes for the shared cache.
+ * </p>
+ */
+class DetectionCache {
+	/**
+	 * Pixels at or above the threshold, in scan order.
+	 */
+	static class Candidates {
+		final int[] xs;
+		final int[] ys;
+
+		Candidates(int[] xs, int[] ys) {
+			this.xs = xs;
+			this.ys = ys;
+		}
+	}
+
+	private static DetectionCache shared;
+
+	private final long capacity;
+	private long size;
+	private final LinkedHashMap<String, Object> entries = new LinkedHashMap<String, Object>(16, 0.75f, true);
+
+	DetectionCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	static synchronized DetectionCache shared() {
+		if(shared == null) {
+			shared = new DetectionCache((long)Prefs.get("kymo.cache.mb", 256) << 20);
+		}
+		return shared;
+	}
+
+	synchronized Object get(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Adds value, which must not be modified afterwards, unless it is bigger
+	 * than the whole cache.
+	 */
+	synchronized void put(String key, Object value) {
+		Object old = entries.remove(key);
+		if(old != null)
+			size -= sizeOf(old);
+		long bytes = sizeOf(value);
+		if(bytes > capacity)
+			return;
+		entries.put(key, value);
+		size += bytes;
+		Iterator<Map.Entry<String, Object>> eldest = entries.entrySet().iterator();
+		while(size > capacity) {
+			size -= sizeOf(eldest.next().getValue());
+			eldest.remove();
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	private static long sizeOf(Object value) {
+		if(value instanceof byte[])
+			return ((byte[])value).length;
+		if(value instanceof short[])
+			return 2L * ((short[])value).length;
+		if(value instanceof float[])
+			return 4L * ((float[])value).length;
+		if(value instanceof Candidates)
+			return 8L * ((Candidates)value).xs.length;
+		throw new IllegalArgumentException("Cannot cache " + value);
+	}
+
+	/**
+	 * @return a 64 bit hash of the content of a byte, short or float pixel array
+	 */
+	static long contentHash(Object pixels) {
+		long hash = 0xcbf29ce484222325L;
+		if(pixels instanceof byte[]) {
+			for(byte b: (byte[])pixels) {
+				hash = (hash ^ b) * 0x100000001b3L;
+			}
+		} else if(pixels instanceof short[]) {
+			for(short s: (short[])pixels) {
+				hash = (hash ^ s) * 0x100000001b3L;
+			}
+		} else {
+			for(float f: (float[])pixels) {
+				hash = (hash ^ Float.floatToRawIntBits(f)) * 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import org.scijava.log.Logger;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Wall time of each stage of finding molecules, and counts of what they made.
+ * <p>
+ * Stages are timed once per run, not per pixel, and counters are plain
+ * fields added to at the end of a loop, so keeping them costs nothing
+ * measurable. Threshold is the time to compute the row thresholds; scanning
+ * the rows for candidate pixels is part of linking.
+ * </p>
+ */
+class DetectionStats {
+	enum Stage {
+		PREPROCESS("preprocess"), THRESHOLD("threshold"), LINK("link"), RESOLVE("resolve"), ROIS("ROI emission");
+
+		final String label;
+
+		Stage(String label) {this.label = label;}
+	}
+
+	private final long[] nanos = new long[Stage.values().length];
+	private Stage current;
+	private long start;
+
+	long candidates;
+	long molecules;
+	long conflicts;
+	long retired;
+	/* Molecules given as ROIs */
+	long kept;
+
+	/**
+	 * Stops the current stage, if any, and starts timing stage.
+	 */
+	void start(Stage stage) {
+		stop();
+		current = stage;
+		start = System.nanoTime();
+	}
+
+	void stop() {
+		if(current != null) {
+			nanos[current.ordinal()] += System.nanoTime() - start;
+			current = null;
+		}
+	}
+
+	double millis(Stage stage) {return nanos[stage.ordinal()] / 1e6;}
+
+	double totalMillis() {
+		long total = 0;
+		for(long n: nanos) {
+			total += n;
+		}
+		return total / 1e6;
+	}
+
+	/**
+	 * Logs the stage times at debug level and a one line summary at info level.
+	 */
+	void log(Logger log, String name) {
+		if(log.isDebug()) {
+			for(Stage stage: Stage.values()) {
+				log.debug(String.format("%s: %s %.1f ms", name, stage.label, millis(stage)));
+			}
+		}
+		log.info(String.format("%s: %d molecules of %d linked, %d candidate pixels, %d conflicts, %d retired, %.1f ms",
+				name, kept, molecules, candidates, conflicts, retired, totalMillis()));
+	}
+
+	/**
+	 * @return a table of the stage times, in ms, then of the counters
+	 */
+	ResultsTable toTable() {
+		ResultsTable table = new ResultsTable();
+		for(Stage stage: Stage.values()) {
+			add(table, stage.label + " (ms)", millis(stage));
+		}
+		add(table, "total (ms)", totalMillis());
+		add(table, "candidate pixels", candidates);
+		add(table, "linked molecules", molecules);
+		add(table, "conflicts", conflicts);
+		add(table, "retired while linking", retired);
+		add(table, "molecules", kept);
+		return table;
+	}
+
+	private static void add(ResultsTable table, String label, double value) {
+		table.incrementCounter();
+		table.addLabel(label);
+		table.addValue("value", value);
+	}
+}
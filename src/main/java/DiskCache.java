@@ -0,0 +1,114 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ij.Prefs;
+
+/**
+ * Preprocessed images kept on disk, across sessions.
+ * <p>
+ * Entries use the keys of {@link DetectionCache}, one file per key in
+ * <code>kymo.diskcache.dir</code>, and are read back by mapping the file, so
+ * that a reanalysis scans the page cache instead of copying the pixels to
+ * the heap. Files are written under a temporary name and renamed, so a
+ * reader never maps a partial entry. The least recently used files are
+ * deleted when the directory exceeds <code>kymo.diskcache.mb</code>
+ * megabytes.
+ * </p>
+ */
+class DiskCache {
+	private static final String SUFFIX = ".kymo";
+	/* Evictions of all the caches in a session are serialized */
+	private static final Object LOCK = new Object();
+
+	private final File dir;
+	private final long capacity;
+
+	DiskCache(File dir, long capacity) {
+		this.dir = dir;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the cache set in the Prefs, or null when there is no directory
+	 */
+	static DiskCache fromPrefs() {
+		String dir = Prefs.get("kymo.diskcache.dir", "");
+		if(dir.isEmpty())
+			return null;
+		return new DiskCache(new File(dir), (long)Prefs.get("kymo.diskcache.mb", 2048) << 20);
+	}
+
+	private File file(String key) {
+		return new File(dir, key.replaceAll("[^A-Za-z0-9.-]", "_") + SUFFIX);
+	}
+
+	/**
+	 * Maps the entry of key read only. The mapping stays valid after the
+	 * entry is evicted.
+	 *
+	 * @return the entry, or null if there is none of bytes bytes
+	 */
+	ByteBuffer get(String key, long bytes) throws IOException {
+		File file = file(key);
+		if(file.length() != bytes)
+			return null;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+			file.setLastModified(System.currentTimeMillis());
+			return buffer;
+		}
+	}
+
+	/**
+	 * Writes the entry of key, then evicts the oldest entries over the size.
+	 */
+	void put(String key, byte[] pixels) throws IOException {
+		if(pixels.length > capacity)
+			return;
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+		File temp = File.createTempFile("entry", ".tmp", dir);
+		try {
+			Files.write(temp.toPath(), pixels);
+			Files.move(temp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		evict();
+	}
+
+	private void evict() {
+		synchronized(LOCK) {
+			File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+			if(files == null)
+				return;
+			long size = 0;
+			for(File file: files) {
+				size += file.length();
+			}
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+			for(int i = 0; i < files.length && size > capacity; i++) {
+				long bytes = files[i].length();
+				/* A mapped file may not be deletable on Windows, it stays until next time */
+				if(files[i].delete())
+					size -= bytes;
+			}
+		}
+	}
+}
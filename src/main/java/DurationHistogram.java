@@ -0,0 +1,149 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Arrays;
+
+/**
+ * Histogram of molecule durations, filled one duration at a time.
+ * <p>
+ * Durations are counted per whole row in a growable array, so adding is a
+ * single increment and memory depends on the longest duration, not on the
+ * number of molecules: the durations of any number of images can be added,
+ * or histograms merged, without keeping them. Bins are made from these
+ * counts on demand: {@link Binning#FIXED} bins of a given width,
+ * {@link Binning#FREEDMAN_DIACONIS} bins of width 2 IQR / n^(1/3), computed
+ * from the counts, and {@link Binning#LOG} bins, a given number per decade.
+ * </p>
+ */
+class DurationHistogram {
+	enum Binning {FIXED, FREEDMAN_DIACONIS, LOG}
+
+	/**
+	 * Counts of bins [edges[i], edges[i + 1][.
+	 */
+	static class Bins {
+		final double[] edges;
+		final long[] counts;
+
+		Bins(double[] edges, long[] counts) {
+			this.edges = edges;
+			this.counts = counts;
+		}
+
+		long maxCount() {
+			long max = 0;
+			for(long count: counts) {
+				max = Math.max(max, count);
+			}
+			return max;
+		}
+	}
+
+	/* Molecules per duration, in whole rows */
+	private long[] counts = new long[256];
+	private long total;
+	private double sum;
+	private double min = Double.MAX_VALUE;
+	private double max = -Double.MAX_VALUE;
+
+	/**
+	 * Counts one duration, rounded down to whole rows.
+	 */
+	void add(double duration) {
+		if(Double.isNaN(duration) || duration < 0)
+			return;
+		int row = (int)Math.min(Integer.MAX_VALUE - 8, duration);
+		if(row >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(2 * counts.length, row + 1));
+		}
+		counts[row]++;
+		total++;
+		sum += duration;
+		min = Math.min(min, duration);
+		max = Math.max(max, duration);
+	}
+
+	void addAll(DurationHistogram other) {
+		if(other.counts.length > counts.length) {
+			counts = Arrays.copyOf(counts, other.counts.length);
+		}
+		for(int i = 0; i < other.counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	long count() {return total;}
+
+	double mean() {return total == 0 ? Double.NaN : sum / total;}
+
+	double min() {return total == 0 ? Double.NaN : min;}
+
+	double max() {return total == 0 ? Double.NaN : max;}
+
+	/**
+	 * @return the smallest whole duration with at least fraction of the molecules at or below it
+	 */
+	int quantile(double fraction) {
+		long rank = (long)Math.ceil(fraction * total);
+		long seen = 0;
+		for(int row = 0; row < counts.length; row++) {
+			seen += counts[row];
+			if(seen >= Math.max(1, rank))
+				return row;
+		}
+		return counts.length - 1;
+	}
+
+	/**
+	 * @param parameter the bin width in {@link Binning#FIXED} mode, the bins
+	 *        per decade in {@link Binning#LOG} mode, unused otherwise
+	 * @return bins from 0, or from 1 in {@link Binning#LOG} mode, up to the
+	 *         longest duration, empty bins included
+	 */
+	Bins bins(Binning binning, double parameter) {
+		int last = total == 0 ? 0 : (int)Math.min(Integer.MAX_VALUE - 8, max);
+		if(binning == Binning.LOG) {
+			double perDecade = Math.max(1, parameter);
+			int numBins = (int)Math.floor(Math.log10(Math.max(1, last)) * perDecade) + 1;
+			double[] edges = new double[numBins + 1];
+			for(int b = 0; b <= numBins; b++) {
+				edges[b] = Math.pow(10, b / perDecade);
+			}
+			long[] binCounts = new long[numBins];
+			for(int row = 0; row <= last; row++) {
+				/* Durations under a row go to the first bin */
+				int b = (int)Math.floor(Math.log10(Math.max(1, row)) * perDecade);
+				binCounts[Math.min(numBins - 1, b)] += counts[row];
+			}
+			return new Bins(edges, binCounts);
+		}
+		int width = binning == Binning.FIXED ? (int)Math.max(1, parameter) : freedmanDiaconisWidth();
+		int numBins = last / width + 1;
+		double[] edges = new double[numBins + 1];
+		for(int b = 0; b <= numBins; b++) {
+			edges[b] = (double)b * width;
+		}
+		long[] binCounts = new long[numBins];
+		for(int row = 0; row <= last; row++) {
+			binCounts[row / width] += counts[row];
+		}
+		return new Bins(edges, binCounts);
+	}
+
+	/* 2 IQR / n^(1/3), in whole rows */
+	private int freedmanDiaconisWidth() {
+		if(total < 2)
+			return 1;
+		int iqr = quantile(0.75) - quantile(0.25);
+		return Math.max(1, (int)Math.ceil(2 * iqr / Math.cbrt(total)));
+	}
+}
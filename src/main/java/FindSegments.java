@@ -7,11 +7,13 @@
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
@@ -53,6 +55,8 @@ import org.scijava.command.Command;
 import org.scijava.command.CommandModule;
 import org.scijava.command.CommandService;
 import org.scijava.convert.ConvertService;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
 import org.scijava.options.OptionsService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -60,6 +64,7 @@ import org.scijava.ui.UIService;
 import org.scijava.util.Colors;
 
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.gui.PointRoi;
 import ij.gui.PolygonRoi;
@@ -70,7 +75,6 @@ import ij.plugin.ImageCalculator;
 import ij.plugin.filter.BackgroundSubtracter;
 import ij.plugin.frame.RoiManager;
 import ij.plugin.tool.PlugInTool;
-import ij.process.Blitter;
 import ij.process.FloatPolygon;
 import ij.process.ImageConverter;
 import io.scif.jj2000.j2k.roi.encoder.ROIMaskGenerator;
@@ -87,6 +91,9 @@ public class FindSegments extends AbstractOp {
 	static final int MAX_Y_BLANK = 4;
 	static final int MAX_X_BLANK = 3;
 	static final int MIN_Y_LEN = 3;
+	/* Columns from the previous line point beyond which a row, or the last row, is left out of the line */
+	static final int MAX_JUMP = 6;
+	static final int MAX_END_JUMP = 3;
 	
 	
     @Parameter
@@ -96,6 +103,22 @@ public class FindSegments extends AbstractOp {
     private ImagePlus source;
     
 	ImagePlus imp;
+	/* Use StripDetector instead of the sequential scan */
+	boolean parallel = Prefs.get("kymo.parallel", false);
+	int threads = Prefs.getThreads();
+	/* Made from the Prefs when null */
+	Preprocessor preprocessor;
+	RowThreshold threshold;
+	LinkSettings settings;
+	Localizer localizer;
+	/* Keeps the preprocessed image and candidates between runs, none when null */
+	DetectionCache cache;
+	/* Keeps the preprocessed image across sessions, none when null */
+	DiskCache diskCache = DiskCache.fromPrefs();
+	private String cacheKey;
+	/* Draw the molecules found in debug, shown by Find Molecules */
+	boolean debugImage = Prefs.get("kymo.debug", false);
+	Img<UnsignedByteType> debug;
 
     
     @Parameter
@@ -120,103 +143,110 @@ public class FindSegments extends AbstractOp {
 	@Parameter
 	private OpService ops;
 
+	@Parameter
+	LogService log;
+
     @Parameter
     private ConvertService convertService;
     
-	class Point {
-		public int x,y;
-		Point(int x, int y) {this.x = x; this.y = y;}
-	}
-	
-	class Molecule {
-		List<Point> points = new ArrayList<Point>();
-		List<Molecule> conflcted = new ArrayList<Molecule>();
+	static class Molecule {
+		final int id;
+		/* Order of creation, ids being given again once released */
+		long serial;
+		int lastY;
+		/* Number of pixels linked, the size compared on conflicts */
+		int numPoints;
+		private final LinkSettings settings;
+		
+		/* Brightest point of each row, kept as points are added */
+		private final PointList lines = new PointList();
+		private int currentY;
+		/* Column of the brightest point of the current row, and of the last line point, or -1 */
+		private int currentX = -1;
+		private int lastX = -1;
+		private float currentMaxIntensity;
 		
-		Molecule(int x, int y) {points.add(new Point(x, y));}
+		Molecule(int id, int x, int y, float intensity, LinkSettings settings) {
+			this.id = id;
+			this.settings = settings;
+			currentY = y;
+			addPoint(x, y, intensity);
+		}
 		
-		boolean addPoint(int x, int y) {
-			for(Point point: points) {
-				if(point.y >= y - MAX_Y_BLANK) {
-					int lastx = point.x; 
-				
-					if(x >= lastx - MAX_X_BLANK && x <= lastx+MAX_X_BLANK) {
-						points.add(new Point(x, y));
-						return true;
+		void addPoint(int x, int y, float intensity) {
+			numPoints++;
+			lastY = y;
+			if(y != currentY) {
+				if(currentX >= 0) {
+					if(lastX < 0 || Math.abs(currentX - lastX)<settings.maxJump) {
+						lines.add(currentX, currentY);
+						lastX = currentX;
 					}
+					
 				}
+				currentY = y;
+				currentMaxIntensity = 0;
+				currentX = -1;
 			}
-			return false;
-		}
-		
-		void addConflict(Molecule m) {if(!conflcted.contains(m)) {conflcted.add(m);}}
-		
-		boolean isBiggest() {
-			for(Molecule m: conflcted) {
-				if(m.points.size() > points.size())
-					return false;
+			if(intensity > currentMaxIntensity) { 
+				currentMaxIntensity = intensity;
+				currentX = x;
 			}
-			return true;
 		}
 		
-		List<Point> getLines() {
-			int lineNum = 0;
-			//RandomAccess access = currentData.randomAccess();
-
-			int currentY = 0;
-			Point currentPoint = null;
-			Point lastPoint = null;
-			long currentMaxIntensity = 0;
-			List<Point> lines = new ArrayList<FindSegments.Point>();
-			for(Point p: points) {
-				if(p.y != currentY) {
-					//access.setPosition(p.y, 1);
-					currentY = p.y;
-					if(currentPoint != null) {
-						if(lastPoint == null || Math.abs(currentPoint.x - lastPoint.x)<6) {
-							lines.add(currentPoint);
-							lastPoint = currentPoint;
-						}
-						
-					}
-					currentMaxIntensity = 0;
-					currentPoint = null;
-				}
-				//access.setPosition(p.x, 0);
-				long intensity = (long)imp.getPixel((int)p.x, (int)currentY)[0];
-				//long intensity = ((UnsignedByteType)access.get()).getIntegerLong();
-				if(intensity > currentMaxIntensity) { 
-					currentMaxIntensity = intensity;
-					currentPoint = p;
-				}
-			}
-			if(currentPoint != null && (lastPoint == null || Math.abs(currentPoint.x - lastPoint.x)<3)) {
-				lines.add(currentPoint);
+		/**
+		 * @return the brightest point of each row, without the jumps
+		 */
+		PointList getLines() {
+			PointList lines = this.lines.copy(1);
+			if(currentX >= 0 && (lastX < 0 || Math.abs(currentX - lastX)<settings.maxEndJump)) {
+				lines.add(currentX, currentY);
 			}
 			return lines;
 		}
 	}
-
-
-	
-	List<Molecule> molecules = new ArrayList<FindSegments.Molecule>();
 	
-	void addPoint(int x, int y) {
-		Molecule found = null;
-		
-		for(Molecule m: molecules) {
-			if(m.addPoint(x, y)) {
-				if(found != null) {
-					found.addConflict(m);
-					m.addConflict(found);
-				}
-				found = m;				
-			} 
+	/**
+	 * @return the polyline going through points
+	 */
+	static PolygonRoi toRoi(PointList points) {
+		return toRoi(points, null);
+	}
+
+	/**
+	 * @param xs sub-pixel x of the points, or null
+	 * @return the polyline going through points
+	 */
+	static PolygonRoi toRoi(PointList points, float[] xs) {
+		int n = points.size();
+		float[] x = new float[n];
+		float[] y = new float[n];
+		for(int i = 0; i < n; i++) {
+			x[i] = xs == null ? points.x(i) : xs[i];
+			y[i] = points.y(i);
 		}
-		if(found == null) { 
-			molecules.add(new Molecule(x, y));
+		FloatPolygon polygon = new FloatPolygon(x, y, n);
+		PolygonRoi roi = new PolygonRoi(polygon, Roi.POLYLINE);
+		java.awt.Rectangle bounds = polygon.getBounds();
+		roi.setName("Molecule "+bounds.x + "x"+bounds.y);
+		return roi;
+	}
+
+	/**
+	 * Adds rois to roiManager, as the particle analyzer does, without
+	 * selecting each one and redrawing the image, then shows them all once.
+	 */
+	static void addRois(RoiManager roiManager, List<? extends Roi> rois) {
+		for(Roi roi: rois) {
+			roiManager.add(roi, -1);
 		}
-		
+		roiManager.runCommand("Show All");
+		roiManager.deselect();
 	}
+
+	Linker linker;
+	/* Times and counts of the last run */
+	DetectionStats stats;
 	
     public void run() {
     	try {
@@ -226,76 +256,72 @@ public class FindSegments extends AbstractOp {
     	}
     }
     
-    private void preprocess() {
+    /**
+     * @return the preprocessed pixels, mapped from the disk cache when it
+     *         has them and imp is not shown, else those of imp
+     */
+    PixelRows preprocess() {
 		if(imp.getBitDepth() != 8) {
 			new ImageConverter(imp).convertToGray8();
 		}
-		ImagePlus blur = imp.duplicate();
-		blur.getProcessor().blurGaussian(10);
-		imp.getProcessor().copyBits(blur.getProcessor(), 0, 0, Blitter.SUBTRACT);		
-		
-		float kernel[] = {-1, 1, 2, 1, -1, -1, 1, 2, 1, -1,-1, 1, 2, 1, -1,-1, 1, 2, 1, -1,-1, 1, 2, 1, -1,-1, 1, 2, 1, -1};
-		imp.getProcessor().convolve(kernel, 5, 5);
-
+		if(preprocessor == null) {
+			preprocessor = Preprocessor.fromPrefs(threads);
+		}
+		cacheKey = null;
+		if(cache != null || diskCache != null) {
+			cacheKey = DetectionCache.contentHash(imp.getProcessor().getPixels()) + ":"
+					+ imp.getWidth() + "x" + imp.getHeight() + ":" + preprocessor.key();
+		}
+		if(cache != null) {
+			byte[] pixels = (byte[])cache.get(cacheKey);
+			if(pixels != null) {
+				imp.getProcessor().setPixels(pixels.clone());
+				return new PixelRows(imp.getProcessor());
+			}
+		}
+		if(diskCache != null) {
+			try {
+				ByteBuffer mapped = diskCache.get(cacheKey, (long)imp.getWidth() * imp.getHeight());
+				if(mapped != null) {
+					log.debug("Preprocessed image mapped from the disk cache");
+					if(imp.getWindow() == null)
+						return new PixelRows(mapped, imp.getWidth(), imp.getHeight());
+					byte[] pixels = new byte[mapped.capacity()];
+					mapped.get(pixels);
+					imp.getProcessor().setPixels(pixels);
+					return new PixelRows(imp.getProcessor());
+				}
+			} catch(IOException e) {
+				log.warn("Cannot read the disk cache", e);
+			}
+		}
+		preprocessor.run(imp.getProcessor());
+		byte[] pixels = (byte[])imp.getProcessor().getPixels();
+		if(cache != null) {
+			cache.put(cacheKey, pixels.clone());
+		}
+		if(diskCache != null) {
+			try {
+				diskCache.put(cacheKey, pixels);
+			} catch(IOException e) {
+				log.warn("Cannot write the disk cache", e);
+			}
+		}
+		return new PixelRows(imp.getProcessor());
     }
     
-	private void parseImage() throws IOException {
+	private void parseImage() throws IOException, InterruptedException, ExecutionException {
     	imp = source.duplicate();
     	imp.show();
+    	cache = DetectionCache.shared();
 
 		
 		Dataset image = currentData;
-		System.out.println("color table count: " + image.getTypeLabelShort());
-		System.out.println("Image bit depth: " + imp.getBitDepth());
-		System.out.println("Image path: "+imp.getFileInfo().fileName);
-
-		preprocess();
-		
-		//RandomAccess access = image.randomAccess();
-		long width = image.max(0);
-		long height = image.max(1);
-		System.out.println(width+"x"+height);
-		for(long row = 0; row<=height; row++) {
-			//long mean = 0;
-			List<Long> values = new ArrayList<Long>();
-			
-			//access.setPosition((int)row, 1);
-			for(long col =0; col <= width; col++ ) {
-				values.add((long)imp.getPixel((int)col, (int)row)[0]);
-			}
-			values.sort(new Comparator<Long>() {
-				@Override
-				public int compare(Long o1, Long o2) {
-					return o1.compareTo(o2);
-				}
-			});
-			//Not used
-			/*
-			long mean = 0L;
-			int numValues = (int)(values.size() * 0.9);
-			for(int i = 0; i < numValues; i++) {
-				mean += values.get(i);
-			}
-			mean = mean / numValues;
-			System.out.println(row + ": "+mean);
-			*/
-			for(long col =0; col <= width; col++ ) {
-				long intensity = (long)imp.getPixel((int)col, (int)row)[0];
-				//if(intensity < mean*1.5) {
-				if(intensity < 40 /* How to choose this value? */) {
-					//ignore pixel
-				} else {
-					addPoint((int)col, (int)row);
-				}
-			}
-		}
-		
-		final int[] dimensions = new int[] { (int)width+1, (int)height+1, 3};
-		final Img< UnsignedByteType > out = new ArrayImgFactory< UnsignedByteType >(new UnsignedByteType()).create( dimensions);
-		final RandomAccess< UnsignedByteType > r = out.randomAccess();
-
-		int numMols = 0;
-		final List<Overlay> overlays = new ArrayList<Overlay>();
+		List<PolygonRoi> rois = findMolecules();
+		log.debug("color table count: " + image.getTypeLabelShort());
+		log.debug("Image bit depth: " + imp.getBitDepth());
+		log.debug("Image path: "+imp.getFileInfo().fileName);
+		stats.start(DetectionStats.Stage.ROIS);
 		
 		ChannelCollection channels = null;		
 		OptionsChannels opts = optionsService.getOptions(OptionsChannels.class);
@@ -305,39 +331,179 @@ public class FindSegments extends AbstractOp {
 
         ResultsTable table = new ResultsTable();
         
+        int numMols = 0;
+		for(PolygonRoi roi: rois) {
+			numMols++;
+            table.incrementCounter();
+            table.setLabel(""+numMols, numMols-1);
+			table.addValue("duration", roi.getBounds().getHeight());
+			table.addValue("Length(x)", roi.getBounds().getWidth());
+		}
+		addRois(roiManager, rois);
+		stats.stop();
+		if(debug != null) {
+			uiService.show("Molecules", debug);
+		}
+		table.show("Durations");
+		stats.log(log, imp.getTitle());
+		stats.toTable().show("Find Molecules summary");
+	}
+	
+	/**
+	 * Finds the molecules of imp, which is preprocessed in place, unless
+	 * it is not shown and the disk cache has it.
+	 * <p>
+	 * Nothing is shown, so this can run headless. The times and counts of
+	 * the run are left in {@link #stats}.
+	 * </p>
+	 * 
+	 * @return one polyline per molecule
+	 */
+	List<PolygonRoi> findMolecules() throws InterruptedException, ExecutionException {
+		start();
+		stats.start(DetectionStats.Stage.PREPROCESS);
+		return detect(preprocess());
+	}
+
+	/**
+	 * Finds the molecules of pixels, which are preprocessed already.
+	 * <p>
+	 * The pixels are only read, so finders with different settings can
+	 * share them.
+	 * </p>
+	 */
+	List<PolygonRoi> findMolecules(PixelRows pixels) throws InterruptedException, ExecutionException {
+		start();
+		cacheKey = null;
+		return detect(pixels);
+	}
+
+	private void start() {
+		if(log == null) {
+			log = new StderrLogService();
+		}
+		if(threshold == null) {
+			threshold = RowThreshold.fromPrefs();
+		}
+		if(settings == null) {
+			settings = LinkSettings.fromPrefs();
+		}
+		stats = new DetectionStats();
+	}
+
+	private List<PolygonRoi> detect(PixelRows pixels) throws InterruptedException, ExecutionException {
+		boolean trace = log.isTrace();
+		long width = pixels.width - 1;
+		long height = pixels.height - 1;
+		log.debug(width+"x"+height);
+		stats.start(DetectionStats.Stage.THRESHOLD);
+		linker = new Linker((int)width+1, settings);
+		/* The disk cache only keeps preprocessed pixels, candidates are kept in memory */
+		String candidatesKey = cacheKey == null || cache == null ? null : cacheKey + ":" + threshold.key();
+		DetectionCache.Candidates cached = candidatesKey == null ? null
+				: (DetectionCache.Candidates)cache.get(candidatesKey);
+		if(cached == null) {
+			threshold.start(pixels);
+		}
+		stats.start(DetectionStats.Stage.LINK);
+		if(cached != null) {
+			int row = -1;
+			for(int i = 0; i < cached.xs.length; i++) {
+				int x = cached.xs[i];
+				int y = cached.ys[i];
+				if(y != row) {
+					linker.retire(y);
+					row = y;
+				}
+				linker.addPoint(x, y, pixels.get(x, y));
+			}
+			linker.retire((int)height);
+			stats.candidates = cached.xs.length;
+		} else if(parallel) {
+			stats.candidates = new StripDetector(pixels, threshold, settings, threads).detect(linker.molecules, linker.conflicts);
+			for(Molecule m: linker.molecules) {
+				if(m.lastY < height - settings.maxYBlank)
+					linker.retired++;
+			}
+		} else {
+			IntList xs = candidatesKey == null ? null : new IntList();
+			IntList ys = candidatesKey == null ? null : new IntList();
+			PixelRows.PointConsumer link = xs == null ? linker::addPoint : (x, y, value) -> {
+				xs.add(x);
+				ys.add(y);
+				linker.addPoint(x, y, value);
+			};
+			long candidates = 0;
+			for(int row = 0; row<=height; row++) {
+				linker.retire(row);
+				candidates += pixels.scan(row, threshold.get(row), link);
+			}
+			stats.candidates = candidates;
+			if(xs != null) {
+				cache.put(candidatesKey, new DetectionCache.Candidates(xs.toArray(), ys.toArray()));
+			}
+		}
+		
+		stats.start(DetectionStats.Stage.RESOLVE);
+		List<Molecule> molecules = linker.molecules;
+		ConflictResolver conflicts = linker.conflicts;
+		int[] sizes = new int[molecules.size()];
+		for(Molecule m: molecules) {
+			sizes[m.id] = m.numPoints;
+		}
+		conflicts.resolve(sizes);
+		stats.molecules = molecules.size();
+		stats.conflicts = conflicts.numConflicts();
+		stats.retired = linker.retired;
+		log.debug(conflicts.numConflicts() + " conflicts in " + conflicts.numGroups() + " groups");
+		
+		stats.start(DetectionStats.Stage.ROIS);
+		RandomAccess< UnsignedByteType > r = null;
+		debug = null;
+		if(debugImage) {
+			final int[] dimensions = new int[] { (int)width+1, (int)height+1, 3};
+			debug = new ArrayImgFactory< UnsignedByteType >(new UnsignedByteType()).create( dimensions);
+			r = debug.randomAccess();
+		}
+
+		int numMols = 0;
+		List<PointList> kept = new ArrayList<PointList>();
+        
 		for(Molecule m: molecules) {
 			
-			if(m.points.size() > MIN_Y_LEN && m.isBiggest()) {
+			if(m.numPoints > settings.minYLen && conflicts.isBiggest(m.id)) {
 				numMols++;
-				System.out.println("New molecule");
-	            table.incrementCounter();
-	            table.setLabel(""+numMols, numMols-1);
+				if(trace)
+					log.trace("New molecule");
 
-				List<DefaultWritablePointMask> pl = new ArrayList<DefaultWritablePointMask>();
-				List<double[]> pl2 = new ArrayList<>();
-				
-				FloatPolygon polygon = new FloatPolygon();
-				for(Point p: m.getLines()) {
-					polygon.addPoint(p.x,  p.y);
-					r.setPosition(p.x, 0);
-					r.setPosition(p.y, 1);
-					System.out.println("set point at " + p.x + "x" + p.y);
-					r.setPosition(numMols%3, 2);
-					((UnsignedByteType)r.get()).set(255);
+				PointList lines = m.getLines();
+				if(r != null || trace) {
+					for(int i = 0; i < lines.size(); i++) {
+						if(trace)
+							log.trace("set point at " + lines.x(i) + "x" + lines.y(i));
+						if(r != null) {
+							r.setPosition(lines.x(i), 0);
+							r.setPosition(lines.y(i), 1);
+							r.setPosition(numMols%3, 2);
+							((UnsignedByteType)r.get()).set(255);
+						}
+					}
 				}
-				table.addValue("duration", polygon.getBounds().getHeight());//m.points.get(m.points.size()-1).y - m.points.get(0).y);
-				//table.addValue("Length", polygon.getLength(true));
-				table.addValue("Length(x)", polygon.getBounds().getWidth());
-				PolygonRoi roi = new PolygonRoi(polygon, Roi.POLYLINE);
-				roi.setName("Molecule "+polygon.getBounds().x + "x"+polygon.getBounds().y);
-				roiManager.addRoi(roi);
+				kept.add(lines);
 			}
 		}
-		System.out.println("Found " + numMols + " molecules");
 
-		roiManager.runCommand("Show All");
-		roiManager.deselect();
-		table.show("Durations");
+		if(localizer == null) {
+			localizer = Localizer.fromPrefs(threads);
+		}
+		float[][] xs = localizer.localize(pixels, kept);
+		List<PolygonRoi> rois = new ArrayList<PolygonRoi>(kept.size());
+		for(int i = 0; i < kept.size(); i++) {
+			rois.add(toRoi(kept.get(i), xs == null ? null : xs[i]));
+		}
+		stats.stop();
+		stats.kept = numMols;
+		return rois;
 	}
 	
 }
@@ -0,0 +1,317 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Joins fragments of tracks across gaps in time and space.
+ * <p>
+ * The end of a fragment may be joined to the start of another one beginning
+ * at most maxGapRows rows later and maxGapX columns away. The starts are
+ * indexed in a grid of cells of that size, so finding the candidates of an
+ * end looks at six cells. A join costs (dx / maxGapX)^2 + (dy / maxGapRows)^2
+ * and leaving an end or a start alone costs half of the largest cost, and
+ * the joins minimizing the total cost are found by the Hungarian algorithm,
+ * separately on each group of fragments connected by candidates. Groups
+ * bigger than {@link #MAX_EXACT} fragments, which only happen with gaps far
+ * too large, are joined greedily by increasing cost instead.
+ * </p>
+ */
+class FragmentLinker {
+	static final int MAX_EXACT = 400;
+	/* Cost of leaving an end, or a start, without a join */
+	private static final double NO_JOIN = 1;
+
+	final int maxGapRows;
+	final double maxGapX;
+
+	FragmentLinker(int maxGapRows, double maxGapX) {
+		this.maxGapRows = Math.max(1, maxGapRows);
+		this.maxGapX = Math.max(1, maxGapX);
+	}
+
+	/**
+	 * @param xs points of each fragment, sorted by row
+	 * @param ys rows of the points
+	 * @return the fragment joined after each fragment, or -1
+	 */
+	int[] link(float[][] xs, float[][] ys) {
+		int n = xs.length;
+		HashMap<Long, IntList> grid = new HashMap<Long, IntList>();
+		for(int j = 0; j < n; j++) {
+			if(xs[j].length > 0)
+				grid.computeIfAbsent(cell(xs[j][0], ys[j][0]), key -> new IntList(4)).add(j);
+		}
+
+		/* Ends are nodes [0, n[, starts nodes [n, 2n[ */
+		int[] parent = new int[2 * n];
+		for(int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+		IntList edgeEnds = new IntList();
+		IntList edgeStarts = new IntList();
+		for(int i = 0; i < n; i++) {
+			int last = xs[i].length - 1;
+			if(last < 0)
+				continue;
+			float x = xs[i][last];
+			float y = ys[i][last];
+			for(long cy = (long)Math.floor(y / maxGapRows); cy <= (long)Math.floor((y + maxGapRows) / maxGapRows); cy++) {
+				for(long cx = (long)Math.floor((x - maxGapX) / maxGapX); cx <= (long)Math.floor((x + maxGapX) / maxGapX); cx++) {
+					IntList starts = grid.get(key(cx, cy));
+					if(starts == null)
+						continue;
+					for(int k = 0; k < starts.size(); k++) {
+						int j = starts.get(k);
+						if(j != i && cost(xs, ys, i, j) < 2 * NO_JOIN) {
+							edgeEnds.add(i);
+							edgeStarts.add(n + j);
+							union(parent, i, n + j);
+						}
+					}
+				}
+			}
+		}
+
+		/* Candidates sorted by group */
+		int numEdges = edgeEnds.size();
+		long[] order = new long[numEdges];
+		for(int e = 0; e < numEdges; e++) {
+			order[e] = (long)find(parent, edgeEnds.get(e)) << 32 | e;
+		}
+		Arrays.sort(order);
+
+		int[] next = new int[n];
+		Arrays.fill(next, -1);
+		int[] local = new int[2 * n];
+		Arrays.fill(local, -1);
+		for(int from = 0; from < numEdges;) {
+			int to = from + 1;
+			while(to < numEdges && order[to] >>> 32 == order[from] >>> 32) {
+				to++;
+			}
+			int[] edges = new int[to - from];
+			for(int e = from; e < to; e++) {
+				edges[e - from] = (int)order[e];
+			}
+			solve(xs, ys, edges, edgeEnds, edgeStarts, n, local, next);
+			from = to;
+		}
+		return next;
+	}
+
+	private long cell(float x, float y) {
+		return key((long)Math.floor(x / maxGapX), (long)Math.floor(y / maxGapRows));
+	}
+
+	private static long key(long cx, long cy) {return cy << 32 ^ (cx & 0xffffffffL);}
+
+	/* Cost of joining the end of fragment i to the start of j, 2 * NO_JOIN or more when out of reach */
+	private double cost(float[][] xs, float[][] ys, int i, int j) {
+		int last = xs[i].length - 1;
+		double dx = xs[j][0] - xs[i][last];
+		double dy = ys[j][0] - ys[i][last];
+		if(dy <= 0 || dy > maxGapRows || Math.abs(dx) > maxGapX)
+			return Double.POSITIVE_INFINITY;
+		return NO_JOIN * ((dx / maxGapX) * (dx / maxGapX) + (dy / maxGapRows) * (dy / maxGapRows));
+	}
+
+	/* Joins the fragments of one group, whose candidates are edges */
+	private void solve(float[][] xs, float[][] ys, int[] edges, IntList edgeEnds, IntList edgeStarts,
+			int n, int[] local, int[] next) {
+		IntList ends = new IntList();
+		IntList starts = new IntList();
+		for(int e: edges) {
+			int end = edgeEnds.get(e);
+			int start = edgeStarts.get(e);
+			if(local[end] < 0) {
+				local[end] = ends.size();
+				ends.add(end);
+			}
+			if(local[start] < 0) {
+				local[start] = starts.size();
+				starts.add(start);
+			}
+		}
+		int size = Math.max(ends.size(), starts.size());
+		if(size <= MAX_EXACT) {
+			/* Joins cost less than leaving both fragments alone, the rest is 0 */
+			double[][] costs = new double[size][size];
+			for(int e: edges) {
+				int end = edgeEnds.get(e);
+				int start = edgeStarts.get(e) - n;
+				costs[local[end]][local[start + n]] = cost(xs, ys, end, start) - 2 * NO_JOIN;
+			}
+			int[] assignment = hungarian(costs);
+			for(int r = 0; r < ends.size(); r++) {
+				int c = assignment[r];
+				if(c < starts.size() && costs[r][c] < 0)
+					next[ends.get(r)] = starts.get(c) - n;
+			}
+		} else {
+			double[] edgeCosts = new double[edges.length];
+			Integer[] byCost = new Integer[edges.length];
+			for(int k = 0; k < edges.length; k++) {
+				edgeCosts[k] = cost(xs, ys, edgeEnds.get(edges[k]), edgeStarts.get(edges[k]) - n);
+				byCost[k] = k;
+			}
+			Arrays.sort(byCost, (a, b) -> Double.compare(edgeCosts[a], edgeCosts[b]));
+			boolean[] started = new boolean[starts.size()];
+			for(int k: byCost) {
+				int end = edgeEnds.get(edges[k]);
+				int start = edgeStarts.get(edges[k]);
+				if(next[end] < 0 && !started[local[start]]) {
+					next[end] = start - n;
+					started[local[start]] = true;
+				}
+			}
+		}
+		for(int i = 0; i < ends.size(); i++) {
+			local[ends.get(i)] = -1;
+		}
+		for(int i = 0; i < starts.size(); i++) {
+			local[starts.get(i)] = -1;
+		}
+	}
+
+	/**
+	 * Solves the assignment problem of a square cost matrix in O(n^3), with
+	 * the shortest augmenting paths of the Hungarian algorithm.
+	 *
+	 * @return the column assigned to each row
+	 */
+	static int[] hungarian(double[][] costs) {
+		int n = costs.length;
+		double[] u = new double[n + 1];
+		double[] v = new double[n + 1];
+		/* Row matched to each column, from 1, 0 for none */
+		int[] p = new int[n + 1];
+		int[] way = new int[n + 1];
+		double[] minv = new double[n + 1];
+		boolean[] used = new boolean[n + 1];
+		for(int i = 1; i <= n; i++) {
+			p[0] = i;
+			int j0 = 0;
+			Arrays.fill(minv, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, false);
+			do {
+				used[j0] = true;
+				int i0 = p[j0];
+				double delta = Double.POSITIVE_INFINITY;
+				int j1 = 0;
+				for(int j = 1; j <= n; j++) {
+					if(!used[j]) {
+						double cur = costs[i0 - 1][j - 1] - u[i0] - v[j];
+						if(cur < minv[j]) {
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if(minv[j] < delta) {
+							delta = minv[j];
+							j1 = j;
+						}
+					}
+				}
+				for(int j = 0; j <= n; j++) {
+					if(used[j]) {
+						u[p[j]] += delta;
+						v[j] -= delta;
+					} else {
+						minv[j] -= delta;
+					}
+				}
+				j0 = j1;
+			} while(p[j0] != 0);
+			do {
+				int j1 = way[j0];
+				p[j0] = p[j1];
+				j0 = j1;
+			} while(j0 != 0);
+		}
+		int[] assignment = new int[n];
+		for(int j = 1; j <= n; j++) {
+			assignment[p[j] - 1] = j - 1;
+		}
+		return assignment;
+	}
+
+	private static int find(int[] parent, int i) {
+		while(parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		parent[find(parent, a)] = find(parent, b);
+	}
+
+	/**
+	 * @return the fragments of each joined track, in order
+	 */
+	static List<int[]> chains(int[] next) {
+		boolean[] joined = new boolean[next.length];
+		for(int j: next) {
+			if(j >= 0)
+				joined[j] = true;
+		}
+		List<int[]> chains = new ArrayList<int[]>();
+		IntList chain = new IntList();
+		for(int i = 0; i < next.length; i++) {
+			if(joined[i])
+				continue;
+			chain.clear();
+			for(int f = i; f >= 0; f = next[f]) {
+				chain.add(f);
+			}
+			chains.add(chain.toArray());
+		}
+		return chains;
+	}
+
+	/**
+	 * @return the x and y of the points of a polyline, sorted by row, the
+	 *         points of a row keeping their order
+	 */
+	static float[][] sortByRow(float[] xs, float[] ys, int n) {
+		float[][] sorted = sortByRow(xs, ys, null, n);
+		return new float[][] {sorted[0], sorted[1]};
+	}
+
+	/**
+	 * @param values a value of each point, like its intensity, or null
+	 * @return the x, y and values of the points, sorted by row, the points of
+	 *         a row keeping their order
+	 */
+	static float[][] sortByRow(float[] xs, float[] ys, float[] values, int n) {
+		float[] x = Arrays.copyOf(xs, n);
+		float[] y = Arrays.copyOf(ys, n);
+		float[] v = values == null ? null : Arrays.copyOf(values, n);
+		for(int i = 1; i < n; i++) {
+			if(y[i] < y[i - 1]) {
+				Integer[] order = new Integer[n];
+				for(int k = 0; k < n; k++) {
+					order[k] = k;
+				}
+				Arrays.sort(order, (a, b) -> Float.compare(ys[a], ys[b]));
+				for(int k = 0; k < n; k++) {
+					x[k] = xs[order[k]];
+					y[k] = ys[order[k]];
+					if(v != null)
+						v[k] = values[order[k]];
+				}
+				break;
+			}
+		}
+		return new float[][] {x, y, v};
+	}
+}
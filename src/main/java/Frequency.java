@@ -9,7 +9,10 @@
 import java.awt.Color;
 import java.awt.Polygon;
 import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -59,12 +62,14 @@ import org.scijava.command.Command;
 import org.scijava.command.CommandModule;
 import org.scijava.command.CommandService;
 import org.scijava.convert.ConvertService;
+import org.scijava.log.LogService;
 import org.scijava.options.OptionsService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.ui.UIService;
 import org.scijava.util.Colors;
 
+import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.GenericDialog;
 import ij.gui.Plot;
@@ -79,7 +84,14 @@ import ij.process.ImageConverter;
 import io.scif.jj2000.j2k.roi.encoder.ROIMaskGenerator;
 
 /**
- * Join 2 molecules from RoiManager
+ * Frequency graph of the durations of the molecules
+ * <p>
+ * Durations are added to a {@link DurationHistogram} as they are read, from
+ * the ROI Manager, from every durations CSV file of a folder, such as
+ * those written by "Find Molecules in large file", or from every track file
+ * of a folder, so that the results of many images are aggregated without
+ * being kept.
+ * </p>
  * <p>
  * <b>Please note that this API is <em>not</em> stable and will almost certainly
  * change prior to the final <code>2.0.0</code> release!</b>
@@ -87,102 +99,135 @@ import io.scif.jj2000.j2k.roi.encoder.ROIMaskGenerator;
  */
 @Plugin(type = Command.class, name="Frequency graph", menuPath = "Plugins>Kymo>Frequency graph")
 public class Frequency implements Command {
+	static final String ROI_MANAGER = "ROI Manager";
+	static final String CSV_FILES = "Durations CSV files in a folder";
+	static final String TRACK_FILES = "Track files in a folder";
 	
     @Parameter
     private RoiManager roiManager;
 
-    class Duration {
-    	Roi roi;
-    	double duration;
-    	Duration(Roi r, double duration) {
-    		this.roi = r;
-    		this.duration = duration;
-    	}
-    }
-    
-    public void run() {
-    	System.out.println("Calc frequency graph");
-    	Roi[] rois = roiManager.getRoisAsArray();
-    	List<Duration> durations= new ArrayList<Frequency.Duration>();
-    	double minDuration = Double.MAX_VALUE;
-    	double maxDuration = 0;
-    	
-    	for(int i = 0; i<rois.length; i++) {
-    		Roi r = rois[i];
-    		double duration = r.getBounds().getHeight();
-    		durations.add(new Duration(r, duration));
-    		if(minDuration > duration) {
-    			minDuration = duration;
-    		}
-    		if(maxDuration < duration) {
-    			maxDuration = duration;
-    		}
-    	}
-    	
-    	System.out.println("Duration: min: " + minDuration+ ", max: " + maxDuration);
+    @Parameter
+    private LogService log;
 
+    public void run() {
     	GenericDialog gd = new GenericDialog("Frequency configuration");
+    	gd.addChoice("Durations from: ", new String[] {ROI_MANAGER, CSV_FILES, TRACK_FILES}, ROI_MANAGER);
+    	gd.addDirectoryField("Folder: ", "");
+    	String[] binnings = new String[DurationHistogram.Binning.values().length];
+    	for(int i = 0; i < binnings.length; i++) {
+    		binnings[i] = DurationHistogram.Binning.values()[i].name();
+    	}
+    	gd.addChoice("Binning: ", binnings, DurationHistogram.Binning.FIXED.name());
         int binWidth = 5;
         gd.addNumericField("Bin Width: ", binWidth, 0);
+        gd.addNumericField("Bins per decade (LOG): ", 10, 0);
         gd.showDialog();
-        if (gd.wasCanceled()) return;        
+        if (gd.wasCanceled()) return;
+        String from = gd.getNextChoice();
+        String folder = gd.getNextString();
+        DurationHistogram.Binning binning = DurationHistogram.Binning.valueOf(gd.getNextChoice());
         binWidth= (int)gd.getNextNumber();
-        
-    	Map<Integer, Integer> values = new HashMap<Integer, Integer>();
-    	int maxNum = 0;
-    	int maxSegment = 0;
-    	for(Duration d: durations) {
-    		int durationSegment = (int)(d.duration / binWidth);
-    		int num = values.containsKey(durationSegment) ? values.get(durationSegment) : 0;
-    		values.put(durationSegment, num+1);
-    		if(num > maxNum)
-    			maxNum = num;
-    		if(maxSegment < durationSegment)
-    			maxSegment = durationSegment;
-    	}
-    	for(int i = 0; i < maxSegment; i++) {
-    		if(!values.containsKey(i)) {
-    			values.put(i, 0);
-    		}
-    	}
-    	
-    	PlotWindow.noGridLines = false; // draw grid lines
-        Plot plot = new Plot("Frequency","Duration","Num molecules");
-        plot.setLimits(minDuration, maxDuration, 0, maxNum + 5);
-        plot.setLineWidth(2);
+        double perDecade = gd.getNextNumber();
 
-        //ArrayList<Float> xValues = new ArrayList<Float>();
-        //for(int v: values.keySet()) {
-        //	xValues.add((float)v);
-        //}
-        ArrayList<Integer> xIntValues = new ArrayList<Integer>(values.keySet());
-        Collections.sort(xIntValues);
-        //ArrayList<Float> yValues = new ArrayList<Float>();
-        double[] xValues = new double[xIntValues.size()];
-        double[] yValues = new double[xIntValues.size()];
-        
-        ResultsTable table = new ResultsTable();
-
-        int num = 0;
-        for(int x: xIntValues) {
-            table.incrementCounter();
-			table.addValue("duration", x * binWidth);
-			table.addValue("num molecules", values.get(x));
-
-        	
-        	xValues[num] = (double)(x * binWidth);
-        	yValues[num] = (double)values.get(x);
-        	System.out.println(x+": "+values.get(x));
-        	num++;
+        DurationHistogram histogram = new DurationHistogram();
+        if(!from.equals(ROI_MANAGER)) {
+        	try {
+        		if(from.equals(CSV_FILES)) {
+        			int skipped = addFolder(new File(folder), histogram);
+        			if(skipped > 0)
+        				log.warn("Skipped " + skipped + " lines without a duration");
+        		} else {
+        			addTrackFiles(new File(folder), histogram);
+        		}
+        	} catch(IOException e) {
+        		IJ.error("Frequency graph", e.getMessage());
+        		return;
+        	}
+        } else {
+        	for(Roi roi: roiManager.getRoisAsArray()) {
+        		histogram.add(roi.getBounds().getHeight());
+        	}
         }
+    	System.out.println(histogram.count() + " molecules, duration: min: " + histogram.min() + ", max: " + histogram.max());
+
+    	DurationHistogram.Bins bins = histogram.bins(binning, binning == DurationHistogram.Binning.LOG ? perDecade : binWidth);
+    	int numBins = bins.counts.length;
+    	double[] xValues = Arrays.copyOf(bins.edges, numBins);
+    	double[] yValues = new double[numBins];
+        ResultsTable table = new ResultsTable(numBins);
+    	for(int i = 0; i < numBins; i++) {
+    		yValues[i] = bins.counts[i];
+    	}
+    	table.setValues("duration", xValues);
+    	table.setValues("num molecules", yValues);
 		table.show("Frequency");
 
-        
+    	PlotWindow.noGridLines = false; // draw grid lines
+        Plot plot = new Plot("Frequency","Duration","Num molecules");
+        plot.setLimits(bins.edges[0], bins.edges[numBins], 0, bins.maxCount() + 5);
+        if(binning == DurationHistogram.Binning.LOG) {
+        	plot.setLogScaleX();
+        }
+        plot.setLineWidth(2);
         plot.setColor(Color.red);
         plot.add("line", xValues,yValues);
         
         plot.show();
+	}
+
+	/**
+	 * Adds the duration column of every CSV file of folder, line by line.
+	 *
+	 * @return the number of lines skipped, having no duration
+	 */
+	static int addFolder(File folder, DurationHistogram histogram) throws IOException {
+		File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".csv"));
+		if(files == null)
+			throw new IOException("Not a folder: " + folder);
+		Arrays.sort(files);
+		int skipped = 0;
+		for(File file: files) {
+			try(BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+				String header = reader.readLine();
+				int column = header == null ? -1 : BatchFindSegments.split(header).indexOf("duration");
+				if(column < 0)
+					continue;
+				for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+					List<String> fields = BatchFindSegments.split(line);
+					try {
+						histogram.add(Double.parseDouble(fields.get(column)));
+					} catch(IndexOutOfBoundsException | NumberFormatException e) {
+						/* Not a duration, like an empty cell */
+						skipped++;
+					}
+				}
+			}
+		}
+		return skipped;
+	}
 
+	/**
+	 * Adds the duration of every track of every track file of folder, as they are read.
+	 */
+	static void addTrackFiles(File folder, DurationHistogram histogram) throws IOException {
+		File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(TrackWriter.EXTENSION));
+		if(files == null)
+			throw new IOException("Not a folder: " + folder);
+		Arrays.sort(files);
+		for(File file: files) {
+			try(TrackReader reader = new TrackReader(file)) {
+				while(reader.next()) {
+					if(reader.size == 0)
+						continue;
+					float minY = reader.ys[0], maxY = reader.ys[0];
+					for(int k = 1; k < reader.size; k++) {
+						minY = Math.min(minY, reader.ys[k]);
+						maxY = Math.max(maxY, reader.ys[k]);
+					}
+					histogram.add(maxY - minY);
+				}
+			}
+		}
 	}
 	
 }
@@ -0,0 +1,211 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ij.gui.PolygonRoi;
+import ij.process.ByteProcessor;
+
+/**
+ * Finds the molecules of a kymograph while its rows are appended.
+ * <p>
+ * A row is linked once lookahead rows have been appended after it, with up
+ * to {@link #halo} rows above as context, so each call costs the same
+ * whatever the number of rows before. The halo is the number of rows a
+ * preprocessed row and its threshold depend on, so it follows sigma and the
+ * threshold window. A row is preprocessed once, as soon as the rows of its
+ * blur are appended, and kept while it is context; only the rows closer to
+ * the bottom than the blur radius, when the lookahead is shorter than the
+ * halo, are preprocessed again on each call. Molecules are linked
+ * with open-track state kept between calls, and a molecule is finalized,
+ * given to the consumer and forgotten as soon as it and all the molecules it
+ * shares pixels with are more than <code>maxYBlank</code> rows behind, and
+ * its id and conflicts are then given to new molecules. Only the rows still
+ * needed as context and the molecules still open are kept.
+ * </p>
+ * <p>
+ * With a lookahead of {@link #EXACT}, the halo, and a preprocessor in
+ * {@link Preprocessor.Mode#FUSED} mode, the molecules are those of the whole
+ * image; a shorter one gives them sooner, the last rows being preprocessed
+ * as if they were the bottom of the image. In the other modes the blur of a
+ * block of rows is not that of the whole image, ImageJ's being downscaled
+ * from the block origin and the recursive one started at the block edges,
+ * so the molecules are close to, not exactly, those of the whole image.
+ * </p>
+ */
+class IncrementalDetector {
+	/* Lookahead of the halo, giving the molecules of the whole image in fused mode */
+	static final int EXACT = -1;
+
+	interface RoiConsumer {
+		void accept(PolygonRoi roi) throws IOException;
+	}
+
+	final int width;
+	/* Rows of context around the rows linked */
+	final int halo;
+	private final int lookahead;
+	private final Preprocessor preprocessor;
+	private final RowThreshold threshold;
+	private final RoiConsumer consumer;
+	private IOException failure;
+	private int numMols;
+
+	/* Rows [bufferStart, appended[, of which [bufferStart, linked[ are context */
+	private byte[] buffer;
+	/* Preprocessed rows [bufferStart, prepared[, which no row to come changes */
+	private byte[] preprocessed;
+	private final Preprocessor.Context context = new Preprocessor.Context();
+	private int bufferStart;
+	private int appended;
+	private int prepared;
+	private int linked;
+
+	private final Linker linker;
+
+	IncrementalDetector(int width, int lookahead, Preprocessor preprocessor, RowThreshold threshold,
+			LinkSettings settings, RoiConsumer consumer) {
+		this.width = width;
+		halo = halo(preprocessor, threshold);
+		this.lookahead = lookahead < 0 ? halo : Math.min(halo, lookahead);
+		this.preprocessor = preprocessor;
+		this.threshold = threshold;
+		this.consumer = consumer;
+		buffer = new byte[width * (2 * halo + 1)];
+		preprocessed = new byte[buffer.length];
+		linker = new Linker(width, settings) {
+			@Override
+			protected void retired(FindSegments.Molecule m) {
+				if(conflicts.close(m.id)) {
+					emitGroup(m.id);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return the rows above and below a row which its preprocessed pixels
+	 *         and its threshold depend on
+	 */
+	static int halo(Preprocessor preprocessor, RowThreshold threshold) {
+		return preprocessor.radius() + (threshold.mode == RowThreshold.Mode.FIXED ? 0 : threshold.window / 2);
+	}
+
+	/**
+	 * @return the number of rows appended so far
+	 */
+	int height() {return appended;}
+
+	/**
+	 * @return the number of molecules given to the consumer so far
+	 */
+	int numMolecules() {return numMols;}
+
+	/**
+	 * Appends numRows rows, width pixels each, and links the rows which now
+	 * have lookahead rows after them.
+	 */
+	void append(byte[] rows, int numRows) throws IOException {
+		int used = (appended - bufferStart) * width;
+		if(used + numRows * width > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, used + numRows * width));
+			preprocessed = Arrays.copyOf(preprocessed, buffer.length);
+		}
+		System.arraycopy(rows, 0, buffer, used, numRows * width);
+		appended += numRows;
+		link(appended - lookahead, false);
+	}
+
+	/**
+	 * Links the last rows and finalizes every molecule, the kymograph being
+	 * complete.
+	 *
+	 * @return the number of molecules
+	 */
+	int finish() throws IOException {
+		link(appended, true);
+		linker.retire(Integer.MAX_VALUE);
+		if(failure != null)
+			throw failure;
+		return numMols;
+	}
+
+	/* Links rows [linked, to[, the last row appended being the bottom of the image if complete */
+	private void link(int to, boolean complete) throws IOException {
+		if(to <= linked)
+			return;
+		int radius = preprocessor.radius();
+		int rows = appended - bufferStart;
+		int ready = complete ? appended : Math.max(prepared, appended - radius);
+		if(ready > prepared) {
+			byte[] pixels = preprocessor.rows(buffer, width, rows, prepared - bufferStart, ready - bufferStart,
+					bufferStart, context);
+			System.arraycopy(pixels, 0, preprocessed, (prepared - bufferStart) * width, pixels.length);
+			prepared = ready;
+		}
+
+		/* Rows of the thresholds of the rows linked */
+		int margin = halo - radius;
+		final int from = Math.max(bufferStart, linked - margin);
+		int end = Math.min(appended, to + margin);
+		int split = Math.max(from, Math.min(end, prepared));
+		byte[] pixels = new byte[(end - from) * width];
+		System.arraycopy(preprocessed, (from - bufferStart) * width, pixels, 0, (split - from) * width);
+		if(end > split) {
+			/* Rows near the bottom, preprocessed as if it was the bottom of the image */
+			byte[] last = preprocessor.rows(buffer, width, rows, split - bufferStart, end - bufferStart,
+					bufferStart, context);
+			System.arraycopy(last, 0, pixels, (split - from) * width, last.length);
+		}
+		PixelRows block = new PixelRows(new ByteProcessor(width, end - from, pixels));
+		RowThreshold t = threshold.copy();
+		t.start(block);
+
+		PixelRows.PointConsumer link = (x, y, value) -> linker.addPoint(x, y + from, value);
+		for(int y = linked; y < to; y++) {
+			linker.retire(y);
+			block.scan(y - from, t.get(y - from), link);
+			if(failure != null)
+				throw failure;
+		}
+		linked = to;
+
+		/* Keep only the rows still needed as context, of the blur or of the thresholds */
+		int keep = Math.max(bufferStart, Math.min(linked - margin, prepared - radius));
+		if(keep > bufferStart) {
+			System.arraycopy(buffer, (keep - bufferStart) * width, buffer, 0, (appended - keep) * width);
+			System.arraycopy(preprocessed, (keep - bufferStart) * width, preprocessed, 0, (prepared - keep) * width);
+			bufferStart = keep;
+			context.forget(keep, width);
+		}
+	}
+
+	/* Every molecule of the group of id is complete: keep the biggest ones */
+	private void emitGroup(int id) {
+		int member = id;
+		do {
+			FindSegments.Molecule m = linker.molecules.get(member);
+			if(m.numPoints > linker.settings.minYLen
+					&& linker.conflicts.isBiggest(member, other -> linker.molecules.get(other).numPoints)) {
+				numMols++;
+				try {
+					consumer.accept(FindSegments.toRoi(m.getLines()));
+				} catch(IOException e) {
+					failure = e;
+				}
+			}
+			member = linker.conflicts.nextMember(member);
+		} while(member != id);
+		do {
+			linker.molecules.set(member, null);
+			member = linker.conflicts.nextMember(member);
+		} while(member != id);
+		linker.conflicts.release(id);
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints.
+ */
+class IntList {
+	private int[] values;
+	private int size;
+
+	IntList() {this(16);}
+
+	IntList(int capacity) {values = new int[Math.max(1, capacity)];}
+
+	void add(int value) {
+		if(size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	int get(int i) {return values[i];}
+
+	void set(int i, int value) {values[i] = value;}
+
+	int size() {return size;}
+
+	int removeLast() {return values[--size];}
+
+	void clear() {size = 0;}
+
+	/**
+	 * Sorts the values from index from and removes the duplicates among them.
+	 */
+	void sortDistinct(int from) {
+		if(size - from < 2)
+			return;
+		Arrays.sort(values, from, size);
+		int distinct = from + 1;
+		for(int i = from + 1; i < size; i++) {
+			if(values[i] != values[distinct - 1]) {
+				values[distinct++] = values[i];
+			}
+		}
+		size = distinct;
+	}
+
+	int[] toArray() {return Arrays.copyOf(values, size);}
+}
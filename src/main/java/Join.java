@@ -10,6 +10,7 @@ import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -55,6 +56,7 @@ import org.scijava.command.Command;
 import org.scijava.command.CommandModule;
 import org.scijava.command.CommandService;
 import org.scijava.convert.ConvertService;
+import org.scijava.log.LogService;
 import org.scijava.options.OptionsService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -75,6 +77,11 @@ import io.scif.jj2000.j2k.roi.encoder.ROIMaskGenerator;
 /**
  * Join 2 molecules from RoiManager
  * <p>
+ * The points of the selected molecules are put in time order, and the first
+ * molecule is replaced by the joined one. "Join molecules automatically"
+ * joins all the fragments at once.
+ * </p>
+ * <p>
  * <b>Please note that this API is <em>not</em> stable and will almost certainly
  * change prior to the final <code>2.0.0</code> release!</b>
  * </p>
@@ -85,23 +92,31 @@ public class Join implements Command {
     @Parameter
     private RoiManager roiManager;
 
+    @Parameter
+    private LogService log;
+
     public void run() {
     	int[] selected = roiManager.getSelectedIndexes();
-    	System.out.println("Joining " + selected.length + " molecules.");
-    	PolygonRoi first = (PolygonRoi)roiManager.getRoi(selected[0]);
-		FloatPolygon firstPolygon = first.getFloatPolygon();
-    	for(int i = 1; i<selected.length; i++) {
-    		PolygonRoi r = (PolygonRoi)roiManager.getRoi(selected[i]);
-    		FloatPolygon polygon = r.getFloatPolygon();
+    	if(selected.length < 2) {
+    		log.error("Select at least 2 molecules to join.");
+    		return;
+    	}
+    	log.info("Joining " + selected.length + " molecules.");
+    	Roi first = roiManager.getRoi(selected[0]);
+		FloatPolygon points = new FloatPolygon();
+    	for(int i = 0; i<selected.length; i++) {
+    		FloatPolygon polygon = roiManager.getRoi(selected[i]).getFloatPolygon();
     		for(int ip = 0; ip < polygon.npoints; ip++) {
-    			firstPolygon.addPoint(polygon.xpoints[ip], polygon.ypoints[ip]);
+    			points.addPoint(polygon.xpoints[ip], polygon.ypoints[ip]);
     		}    		
     	}
+    	float[][] sorted = FragmentLinker.sortByRow(points.xpoints, points.ypoints, points.npoints);
     	
-    	Roi r = new PolygonRoi(firstPolygon, Roi.POLYLINE);
+    	Roi r = new PolygonRoi(new FloatPolygon(sorted[0], sorted[1], points.npoints), Roi.POLYLINE);
     	r.setName(first.getName());
+    	roiManager.setRoi(r, selected[0]);
+    	roiManager.setSelectedIndexes(Arrays.copyOfRange(selected, 1, selected.length));
 		roiManager.runCommand("delete");
-    	roiManager.addRoi(r);
 	}
 	
 }
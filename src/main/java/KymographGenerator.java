@@ -0,0 +1,251 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+/**
+ * Renders 8-bit kymographs of molecules whose tracks are known.
+ * <p>
+ * Each molecule starts at a random place and lives for a random number of
+ * rows. Every row it moves by the drift plus a Gaussian step of variance
+ * 2 x diffusion, and it may blink off for a few rows. Its spot is a Gaussian
+ * of psfSigma pixels over a uniform background, and each pixel is a Poisson
+ * draw of the expected number of photons.
+ * </p>
+ * <p>
+ * Rows are rendered on demand and always give the same pixels for the same
+ * seed, so kymographs too big for the heap can be written block by block.
+ * </p>
+ */
+class KymographGenerator {
+	static class Track {
+		final int startY;
+		/* Position and visibility on each row of the track */
+		final float[] x;
+		final boolean[] on;
+
+		Track(int startY, float[] x, boolean[] on) {
+			this.startY = startY;
+			this.x = x;
+			this.on = on;
+		}
+
+		int endY() {return startY + x.length;}
+
+		int numVisibleRows() {
+			int n = 0;
+			for(boolean b: on) {
+				if(b)
+					n++;
+			}
+			return n;
+		}
+	}
+
+	final int width;
+	final int height;
+	/* Molecules starting per column and 1000 rows */
+	double density = 0.05;
+	/* Pixels^2 per row */
+	double diffusion = 0.02;
+	/* Pixels per row */
+	double drift = 0;
+	/* Probability of blinking off on each row, and mean rows off */
+	double blinking = 0.01;
+	double meanGap = 3;
+	int minLength = 20;
+	int maxLength = 300;
+	/* Photons at the centre of a spot, and of the background */
+	double intensity = 100;
+	double background = 20;
+	double psfSigma = 1;
+	boolean poisson = true;
+	long seed = 1;
+
+	private List<Track> tracks;
+
+	KymographGenerator(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Draws the tracks, sorted by start row.
+	 */
+	List<Track> generate() {
+		Random random = new Random(seed);
+		long numTracks = Math.round(density * width * (double)height / 1000);
+		tracks = new ArrayList<Track>((int)Math.min(Integer.MAX_VALUE - 8, numTracks));
+		double step = Math.sqrt(2 * diffusion);
+		for(long t = 0; t < numTracks; t++) {
+			int startY = random.nextInt(height);
+			int length = Math.min(height - startY, minLength + random.nextInt(maxLength - minLength + 1));
+			float[] x = new float[length];
+			boolean[] on = new boolean[length];
+			double position = random.nextDouble() * width;
+			boolean visible = true;
+			int n = 0;
+			for(; n < length && position >= 0 && position < width; n++) {
+				x[n] = (float)position;
+				on[n] = visible;
+				position += drift + step * random.nextGaussian();
+				visible = visible ? random.nextDouble() >= blinking : random.nextDouble() < 1 / meanGap;
+			}
+			if(n < length) {
+				x = Arrays.copyOf(x, n);
+				on = Arrays.copyOf(on, n);
+			}
+			if(n > 0)
+				tracks.add(new Track(startY, x, on));
+		}
+		tracks.sort(Comparator.comparingInt(t -> t.startY));
+		return tracks;
+	}
+
+	List<Track> tracks() {
+		if(tracks == null)
+			generate();
+		return tracks;
+	}
+
+	/* Index of the first track which may still be alive on row y */
+	private int firstTrack(int y) {
+		int from = y - maxLength;
+		int lo = 0, hi = tracks().size();
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(tracks.get(mid).startY < from)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the pixels of rows [from, to[
+	 */
+	byte[] render(int from, int to) {
+		int rows = to - from;
+		float[] expected = new float[rows * width];
+		Arrays.fill(expected, (float)background);
+		int radius = (int)Math.ceil(3 * psfSigma);
+		float[] spot = new float[2 * radius + 2];
+		List<Track> tracks = tracks();
+		for(int i = firstTrack(from); i < tracks.size() && tracks.get(i).startY < to; i++) {
+			Track track = tracks.get(i);
+			for(int y = Math.max(from, track.startY), end = Math.min(to, track.endY()); y < end; y++) {
+				int n = y - track.startY;
+				if(!track.on[n])
+					continue;
+				float cx = track.x[n];
+				int x0 = (int)Math.floor(cx) - radius;
+				for(int k = 0; k < spot.length; k++) {
+					double d = x0 + k - cx;
+					spot[k] = (float)(intensity * Math.exp(-0.5 * d * d / (psfSigma * psfSigma)));
+				}
+				int offset = (y - from) * width;
+				for(int k = 0; k < spot.length; k++) {
+					int x = x0 + k;
+					if(x >= 0 && x < width)
+						expected[offset + x] += spot[k];
+				}
+			}
+		}
+		byte[] pixels = new byte[expected.length];
+		for(int r = 0; r < rows; r++) {
+			/* One generator per row, so that blocks do not change the pixels */
+			Random random = new Random(seed * 0x9E3779B97F4A7C15L + from + r);
+			int offset = r * width;
+			for(int x = 0; x < width; x++) {
+				int v = poisson ? poisson(random, expected[offset + x]) : Math.round(expected[offset + x]);
+				pixels[offset + x] = (byte)(v > 255 ? 255 : v);
+			}
+		}
+		return pixels;
+	}
+
+	private static int poisson(Random random, double lambda) {
+		if(lambda < 30) {
+			double limit = Math.exp(-lambda);
+			double p = random.nextDouble();
+			int k = 0;
+			while(p > limit) {
+				k++;
+				p *= random.nextDouble();
+			}
+			return k;
+		}
+		return (int)Math.max(0, Math.round(lambda + Math.sqrt(lambda) * random.nextGaussian()));
+	}
+
+	/**
+	 * @return the whole kymograph, which must fit in a single array
+	 */
+	ImagePlus toImage() {
+		if((long)width * height > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException(width + "x" + height + " is too big for an image, write it to a file");
+		return new ImagePlus("Synthetic kymograph", new ByteProcessor(width, height, render(0, height)));
+	}
+
+	/**
+	 * Writes the kymograph as raw 8-bit pixels, blockRows rows at a time.
+	 */
+	void writeRaw(File file, int blockRows) throws IOException {
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20)) {
+			for(int from = 0; from < height; from += blockRows) {
+				out.write(render(from, Math.min(height, from + blockRows)));
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the track most of the points follow within
+	 *         tolerance pixels, or -1
+	 */
+	int match(float[] xs, float[] ys, int n, float tolerance) {
+		if(n == 0)
+			return -1;
+		int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+		for(int i = 0; i < n; i++) {
+			minY = Math.min(minY, (int)ys[i]);
+			maxY = Math.max(maxY, (int)ys[i]);
+		}
+		List<Track> tracks = tracks();
+		int best = -1;
+		int bestCount = 0;
+		for(int t = firstTrack(minY); t < tracks.size() && tracks.get(t).startY <= maxY; t++) {
+			Track track = tracks.get(t);
+			if(track.endY() <= minY)
+				continue;
+			int count = 0;
+			for(int i = 0; i < n; i++) {
+				int row = (int)ys[i] - track.startY;
+				if(row >= 0 && row < track.x.length && Math.abs(track.x[row] - xs[i]) <= tolerance)
+					count++;
+			}
+			if(count > bestCount) {
+				bestCount = count;
+				best = t;
+			}
+		}
+		return 2 * bestCount >= n ? best : -1;
+	}
+}
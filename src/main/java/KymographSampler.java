@@ -0,0 +1,193 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImageStack;
+import ij.gui.Line;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+
+/**
+ * Samples line ROIs through the frames of a movie, one kymograph row per
+ * frame and line.
+ * <p>
+ * Frames are read with <code>ImageStack.getProcessor</code>, so a virtual
+ * stack decodes them on demand, and a few frames per thread are decoded in
+ * parallel ahead of the one being consumed. Rows are given by blocks, in
+ * frame order, and nothing else is kept: neither the movie nor the
+ * kymographs are ever held in memory.
+ * </p>
+ */
+class KymographSampler {
+	/* Frames decoded ahead per thread */
+	static final int AHEAD = 2;
+
+	interface RowsConsumer {
+		/**
+		 * @param rows numRows rows of the kymograph of line, 8-bit
+		 */
+		void accept(int line, byte[] rows, int numRows) throws IOException;
+	}
+
+	private final ImageStack stack;
+	private final int[] planes;
+	/* Per line: x and y of the points sampled, one pixel apart */
+	private final float[][] xs;
+	private final float[][] ys;
+	private final int threads;
+	/* Values mapped to 0 and 256 when converting to 8-bit */
+	double min = 0;
+	double max = 256;
+
+	/**
+	 * @param planes the stack index of each frame, from 1
+	 * @param lines line ROIs, see {@link #isLine(Roi)}
+	 */
+	KymographSampler(ImageStack stack, int[] planes, Roi[] lines, int threads) {
+		this.stack = stack;
+		this.planes = planes;
+		this.threads = Math.max(1, threads);
+		xs = new float[lines.length][];
+		ys = new float[lines.length][];
+		for(int l = 0; l < lines.length; l++) {
+			sample(path(lines[l]), l);
+		}
+	}
+
+	/**
+	 * @return true for straight, segmented and freehand lines
+	 */
+	static boolean isLine(Roi roi) {
+		return roi != null && (roi.getType() == Roi.LINE || roi.getType() == Roi.POLYLINE
+				|| roi.getType() == Roi.FREELINE);
+	}
+
+	private static FloatPolygon path(Roi roi) {
+		if(roi instanceof Line) {
+			Line line = (Line)roi;
+			FloatPolygon path = new FloatPolygon();
+			path.addPoint(line.x1d, line.y1d);
+			path.addPoint(line.x2d, line.y2d);
+			return path;
+		}
+		return roi.getFloatPolygon();
+	}
+
+	/* Points along path one pixel apart, the first one at its start */
+	private void sample(FloatPolygon path, int l) {
+		double length = 0;
+		for(int i = 0; i < path.npoints - 1; i++) {
+			length += segmentLength(path, i);
+		}
+		int n = (int)Math.floor(length) + 1;
+		xs[l] = new float[n];
+		ys[l] = new float[n];
+		int segment = 0;
+		double start = 0;
+		for(int k = 0; k < n; k++) {
+			if(path.npoints == 1) {
+				xs[l][k] = path.xpoints[0];
+				ys[l][k] = path.ypoints[0];
+				continue;
+			}
+			while(segment < path.npoints - 2 && k > start + segmentLength(path, segment)) {
+				start += segmentLength(path, segment);
+				segment++;
+			}
+			double segmentLength = segmentLength(path, segment);
+			double f = segmentLength > 0 ? Math.min(1, (k - start) / segmentLength) : 0;
+			xs[l][k] = (float)(path.xpoints[segment] + f * (path.xpoints[segment + 1] - path.xpoints[segment]));
+			ys[l][k] = (float)(path.ypoints[segment] + f * (path.ypoints[segment + 1] - path.ypoints[segment]));
+		}
+	}
+
+	private static double segmentLength(FloatPolygon path, int i) {
+		return Math.hypot(path.xpoints[i + 1] - path.xpoints[i], path.ypoints[i + 1] - path.ypoints[i]);
+	}
+
+	int numLines() {return xs.length;}
+
+	/**
+	 * @return the width of the kymograph of line
+	 */
+	int width(int line) {return xs[line].length;}
+
+	int numFrames() {return planes.length;}
+
+	/**
+	 * Samples every frame, giving consumer blockRows rows of each line at a
+	 * time.
+	 */
+	void sample(int blockRows, RowsConsumer consumer)
+			throws IOException, InterruptedException, ExecutionException {
+		blockRows = Math.max(1, blockRows);
+		byte[][] blocks = new byte[xs.length][];
+		for(int l = 0; l < xs.length; l++) {
+			blocks[l] = new byte[blockRows * width(l)];
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<float[][]>> decoding = new ArrayDeque<Future<float[][]>>();
+		try {
+			int next = 0;
+			int rows = 0;
+			for(int frame = 0; frame < planes.length; frame++) {
+				while(next < planes.length && decoding.size() < AHEAD * threads) {
+					int plane = planes[next++];
+					decoding.add(pool.submit(() -> sampleFrame(plane)));
+				}
+				float[][] values = decoding.poll().get();
+				for(int l = 0; l < xs.length; l++) {
+					toByte(values[l], min, max, blocks[l], rows * width(l));
+				}
+				if(++rows == blockRows || frame == planes.length - 1) {
+					for(int l = 0; l < xs.length; l++) {
+						consumer.accept(l, blocks[l], rows);
+					}
+					rows = 0;
+				}
+			}
+		} finally {
+			for(Future<float[][]> future: decoding) {
+				future.cancel(true);
+			}
+			pool.shutdown();
+		}
+	}
+
+	private float[][] sampleFrame(int plane) {
+		ImageProcessor ip = stack.getProcessor(plane);
+		float[][] values = new float[xs.length][];
+		for(int l = 0; l < xs.length; l++) {
+			float[] x = xs[l];
+			float[] y = ys[l];
+			values[l] = new float[x.length];
+			for(int k = 0; k < x.length; k++) {
+				values[l][k] = (float)ip.getInterpolatedValue(x[k], y[k]);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Converts values to 8-bit, min and max being mapped to 0 and 256.
+	 */
+	static void toByte(float[] values, double min, double max, byte[] pixels, int offset) {
+		double scale = max > min ? 256 / (max - min) : 1;
+		for(int i = 0; i < values.length; i++) {
+			int v = (int)((values[i] - min) * scale);
+			pixels[offset + i] = (byte)(v < 0 ? 0 : v > 255 ? 255 : v);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import ij.Prefs;
+
+/**
+ * How pixels are linked into molecules, and which molecules are kept.
+ * <p>
+ * A pixel extends a molecule having a point at most maxXBlank columns and
+ * maxYBlank rows before it. Molecules of more than minYLen points are kept.
+ * The line of a molecule goes through the brightest point of each row,
+ * skipping the rows whose point is maxJump columns or more from the previous
+ * one, and the last row if it is maxEndJump columns or more away.
+ * </p>
+ */
+class LinkSettings {
+	static final LinkSettings DEFAULT = new LinkSettings(FindSegments.MAX_Y_BLANK, FindSegments.MAX_X_BLANK,
+			FindSegments.MIN_Y_LEN, FindSegments.MAX_JUMP, FindSegments.MAX_END_JUMP);
+
+	final int maxYBlank;
+	final int maxXBlank;
+	final int minYLen;
+	final int maxJump;
+	final int maxEndJump;
+
+	LinkSettings(int maxYBlank, int maxXBlank, int minYLen, int maxJump, int maxEndJump) {
+		this.maxYBlank = Math.max(0, maxYBlank);
+		this.maxXBlank = Math.max(0, maxXBlank);
+		this.minYLen = minYLen;
+		this.maxJump = maxJump;
+		this.maxEndJump = maxEndJump;
+	}
+
+	static LinkSettings fromPrefs() {
+		return new LinkSettings((int)Prefs.get("kymo.link.y_blank", FindSegments.MAX_Y_BLANK),
+				(int)Prefs.get("kymo.link.x_blank", FindSegments.MAX_X_BLANK),
+				(int)Prefs.get("kymo.min_length", FindSegments.MIN_Y_LEN),
+				(int)Prefs.get("kymo.lines.jump", FindSegments.MAX_JUMP),
+				(int)Prefs.get("kymo.lines.end_jump", FindSegments.MAX_END_JUMP));
+	}
+}
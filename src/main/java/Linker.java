@@ -0,0 +1,106 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links the pixels above the threshold into molecules, in scan order.
+ * <p>
+ * A pixel extends every molecule having a point at most
+ * <code>maxXBlank</code> columns and <code>maxYBlank</code> rows before
+ * it, and starts a new molecule when there is none. Molecules extended by the
+ * same pixel are recorded as conflicting. Molecules are indexed by id in
+ * {@link #molecules}, so the slots of released ids are used again.
+ * </p>
+ */
+class Linker {
+	final List<FindSegments.Molecule> molecules = new ArrayList<FindSegments.Molecule>();
+	final ConflictResolver conflicts = new ConflictResolver();
+	/* Molecules whose tail is still in the linking window */
+	final List<FindSegments.Molecule> active = new ArrayList<FindSegments.Molecule>();
+	final LinkSettings settings;
+	private final TailIndex tails;
+	private long created;
+	int retired;
+
+	Linker(int width, LinkSettings settings) {
+		this.settings = settings;
+		tails = new TailIndex(width, settings.maxXBlank, settings.maxYBlank);
+	}
+
+	void addPoint(int x, int y, float intensity) {
+		FindSegments.Molecule found = null;
+		
+		int numMatches = tails.query(x, y);
+		int[] matches = tails.matches();
+		if(numMatches > 1) {
+			sortByCreation(matches, numMatches);
+		}
+		for(int i = 0; i < numMatches; i++) {
+			FindSegments.Molecule m = molecules.get(matches[i]);
+			m.addPoint(x, y, intensity);
+			tails.add(x, y, m.id);
+			if(found != null) {
+				conflicts.conflict(found.id, m.id);
+			}
+			found = m;
+		}
+		if(found == null) { 
+			FindSegments.Molecule m = new FindSegments.Molecule(conflicts.add(), x, y, intensity, settings);
+			m.serial = created++;
+			/* Ids of released molecules are given again */
+			if(m.id == molecules.size()) {
+				molecules.add(m);
+			} else {
+				molecules.set(m.id, m);
+			}
+			active.add(m);
+			tails.add(x, y, m.id);
+		}
+	}
+
+	/*
+	 * Conflicts are recorded between molecules following each other in
+	 * creation order, as when ids were never given again.
+	 */
+	private void sortByCreation(int[] ids, int n) {
+		for(int i = 1; i < n; i++) {
+			int id = ids[i];
+			long serial = molecules.get(id).serial;
+			int j = i - 1;
+			while(j >= 0 && molecules.get(ids[j]).serial > serial) {
+				ids[j + 1] = ids[j];
+				j--;
+			}
+			ids[j + 1] = id;
+		}
+	}
+
+	/**
+	 * Retires the molecules that can no longer be extended from row y on.
+	 */
+	void retire(int y) {
+		for(int i = active.size() - 1; i >= 0; i--) {
+			FindSegments.Molecule m = active.get(i);
+			if(m.lastY < y - settings.maxYBlank) {
+				Collections.swap(active, i, active.size() - 1);
+				active.remove(active.size() - 1);
+				retired++;
+				retired(m);
+			}
+		}
+	}
+
+	/**
+	 * Called once for each molecule leaving the linking window.
+	 */
+	protected void retired(FindSegments.Molecule m) {
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * Finds molecules in a kymograph growing during an acquisition.
+ * <p>
+ * Each time the image is updated with new rows, only these rows are given to
+ * an {@link IncrementalDetector}, and the molecules it finalizes are added to
+ * the ROI Manager. The last rows are linked when the image is closed. 16 and
+ * 32 bit rows are converted with the display range the image had when the
+ * command started, so that all rows are scaled alike.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Find Molecules live", menuPath = "Plugins>Kymo>Find Molecules live")
+public class LiveFindSegments implements Command, ImageListener {
+	@Parameter
+	private ImagePlus source;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Rows of lookahead (-1 for the whole halo)", min = "-1")
+	private int lookahead = IncrementalDetector.EXACT;
+
+	private IncrementalDetector detector;
+	private RoiManager roiManager;
+	private final List<PolygonRoi> found = new ArrayList<PolygonRoi>();
+	private double min;
+	private double max;
+	private long slowest;
+
+	public void run() {
+		min = source.getProcessor().getMin();
+		max = source.getProcessor().getMax();
+		detector = new IncrementalDetector(source.getWidth(), lookahead, Preprocessor.fromPrefs(1),
+				RowThreshold.fromPrefs(), LinkSettings.fromPrefs(), found::add);
+		roiManager = new RoiManager();
+		update();
+		ImagePlus.addImageListener(this);
+		log.info("Following " + source.getTitle() + " from row " + detector.height() + ", rows depend on "
+				+ detector.halo + " rows around them");
+	}
+
+	public void imageOpened(ImagePlus imp) {
+	}
+
+	public void imageUpdated(ImagePlus imp) {
+		if(imp == source)
+			update();
+	}
+
+	public synchronized void imageClosed(ImagePlus imp) {
+		if(imp != source)
+			return;
+		ImagePlus.removeImageListener(this);
+		try {
+			detector.finish();
+		} catch(IOException e) {
+			log.error(e);
+		}
+		show();
+		log.info(String.format("%d molecules in %d rows, slowest update %.1f ms",
+				detector.numMolecules(), detector.height(), slowest / 1e6));
+	}
+
+	private synchronized void update() {
+		int height = source.getHeight();
+		if(source.getWidth() != detector.width) {
+			log.error("The width of " + source.getTitle() + " changed, stopped following it");
+			ImagePlus.removeImageListener(this);
+			return;
+		}
+		if(height <= detector.height())
+			return;
+		long start = System.nanoTime();
+		try {
+			detector.append(newRows(detector.height(), height), height - detector.height());
+		} catch(IOException e) {
+			log.error(e);
+		}
+		slowest = Math.max(slowest, System.nanoTime() - start);
+		show();
+	}
+
+	/* Rows [from, to[ of the image, as 8-bit pixels */
+	private byte[] newRows(int from, int to) {
+		int width = detector.width;
+		Object pixels = source.getProcessor().getPixels();
+		if(pixels instanceof byte[])
+			return Arrays.copyOfRange((byte[])pixels, from * width, to * width);
+		PixelRows rows = new PixelRows(source.getProcessor());
+		byte[] bytes = new byte[(to - from) * width];
+		float[] row = new float[width];
+		for(int y = from; y < to; y++) {
+			rows.read(y, 0, width, row);
+			KymographSampler.toByte(row, min, max, bytes, (y - from) * width);
+		}
+		return bytes;
+	}
+
+	private void show() {
+		if(found.isEmpty())
+			return;
+		FindSegments.addRois(roiManager, found);
+		found.clear();
+	}
+}
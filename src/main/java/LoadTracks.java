@@ -0,0 +1,54 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.gui.PolygonRoi;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * Load the tracks of a track file into the ROI Manager
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Load tracks", menuPath = "Plugins>Kymo>Load tracks")
+public class LoadTracks implements Command {
+	@Parameter
+	private RoiManager roiManager;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Track file")
+	private File input;
+
+	public void run() {
+		long start = System.nanoTime();
+		List<PolygonRoi> rois = new ArrayList<PolygonRoi>();
+		try(TrackReader reader = new TrackReader(input)) {
+			while(reader.next()) {
+				rois.add(reader.toRoi());
+			}
+		} catch(IOException e) {
+			log.error(e);
+			return;
+		}
+		log.info(String.format("Loaded %d tracks in %.1f ms", rois.size(), (System.nanoTime() - start) / 1e6));
+		FindSegments.addRois(roiManager, rois);
+	}
+}
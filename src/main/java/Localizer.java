@@ -0,0 +1,108 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import ij.Prefs;
+
+/**
+ * Sub-pixel position of the points of molecules, row by row.
+ * <p>
+ * Each point is refined from the pixels of its row within {@link #RADIUS}
+ * columns, read at once. {@link Mode#CENTROID} takes the centroid of these
+ * pixels above their minimum. {@link Mode#GAUSSIAN} fits a Gaussian through
+ * the point and its two neighbours, which has a closed form on the logarithm
+ * of the values, and falls back to the centroid when they are not a peak.
+ * Molecules are localized in parallel.
+ * </p>
+ */
+class Localizer {
+	enum Mode {NONE, CENTROID, GAUSSIAN}
+
+	static final int RADIUS = 2;
+
+	final Mode mode;
+	final int threads;
+
+	Localizer(Mode mode, int threads) {
+		this.mode = mode;
+		this.threads = Math.max(1, threads);
+	}
+
+	static Localizer fromPrefs(int threads) {
+		return new Localizer(Mode.valueOf(Prefs.get("kymo.localize", Mode.NONE.name())), threads);
+	}
+
+	/**
+	 * @return the sub-pixel x of every point of every line, or null in
+	 *         {@link Mode#NONE} mode
+	 */
+	float[][] localize(PixelRows pixels, List<PointList> lines)
+			throws InterruptedException, ExecutionException {
+		if(mode == Mode.NONE)
+			return null;
+		float[][] xs = new float[lines.size()][];
+		if(threads == 1) {
+			float[] window = new float[2 * RADIUS + 1];
+			for(int i = 0; i < xs.length; i++) {
+				xs[i] = localize(pixels, lines.get(i), window);
+			}
+			return xs;
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, xs.length).parallel().forEach(
+					i -> xs[i] = localize(pixels, lines.get(i), new float[2 * RADIUS + 1]))).get();
+		} finally {
+			pool.shutdown();
+		}
+		return xs;
+	}
+
+	private float[] localize(PixelRows pixels, PointList points, float[] window) {
+		float[] xs = new float[points.size()];
+		for(int i = 0; i < xs.length; i++) {
+			int x = points.x(i);
+			pixels.read(points.y(i), x - RADIUS, x + RADIUS + 1, window);
+			float dx = mode == Mode.GAUSSIAN ? gaussian(window) : Float.NaN;
+			xs[i] = x + (Float.isNaN(dx) ? centroid(window) : dx);
+		}
+		return xs;
+	}
+
+	/* Offset of the centroid from the centre of window */
+	static float centroid(float[] window) {
+		float min = Float.MAX_VALUE;
+		for(float v: window) {
+			min = Math.min(min, v);
+		}
+		float sum = 0, moment = 0;
+		for(int i = 0; i < window.length; i++) {
+			float w = window[i] - min;
+			sum += w;
+			moment += w * (i - RADIUS);
+		}
+		return sum > 0 ? moment / sum : 0;
+	}
+
+	/* Offset of the peak of the Gaussian through the 3 central values, or NaN */
+	static float gaussian(float[] window) {
+		float left = window[RADIUS - 1], centre = window[RADIUS], right = window[RADIUS + 1];
+		if(left <= 0 || centre <= 0 || right <= 0)
+			return Float.NaN;
+		double l = Math.log(left), c = Math.log(centre), r = Math.log(right);
+		double curvature = l - 2 * c + r;
+		if(curvature >= 0)
+			return Float.NaN;
+		double dx = (l - r) / (2 * curvature);
+		return Math.abs(dx) > 1 ? Float.NaN : (float)dx;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * Makes the kymographs of line ROIs through a movie and finds their
+ * molecules, streaming.
+ * <p>
+ * The lines are those of the ROI Manager, or the line selected on the movie.
+ * Open big movies as a virtual stack: frames are then decoded on demand, in
+ * parallel, and each kymograph row goes straight to an
+ * {@link IncrementalDetector}, so neither the movie nor the kymographs are
+ * held in memory. Kymographs can be written to raw 8-bit files, one per
+ * line, to be opened with File &gt; Import &gt; Raw or "Find Molecules in
+ * large file". 16 and 32 bit movies are converted with their display range.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Make kymograph", menuPath = "Plugins>Kymo>Make kymograph")
+public class MakeKymograph implements Command {
+	@Parameter
+	private ImagePlus source;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Rows per block", min = "1")
+	private int blockRows = 1024;
+
+	@Parameter(label = "Decoding threads", min = "1")
+	private int threads = Prefs.getThreads();
+
+	@Parameter(label = "Directory for the kymographs (optional)", style = "directory", required = false)
+	private File output;
+
+	public void run() {
+		Roi[] lines = lines();
+		if(lines.length == 0) {
+			log.error("Draw a line, or add lines to the ROI Manager");
+			return;
+		}
+		KymographSampler sampler = new KymographSampler(source.getStack(), planes(), lines, threads);
+		if(source.getBitDepth() != 8) {
+			sampler.min = source.getDisplayRangeMin();
+			sampler.max = source.getDisplayRangeMax();
+		}
+		log.info("Sampling " + lines.length + " lines through " + sampler.numFrames() + " frames of "
+				+ source.getTitle() + " with " + threads + " threads");
+
+		List<List<PolygonRoi>> found = new ArrayList<List<PolygonRoi>>();
+		IncrementalDetector[] detectors = new IncrementalDetector[lines.length];
+		OutputStream[] kymographs = new OutputStream[lines.length];
+		long start = System.nanoTime();
+		try {
+			for(int l = 0; l < lines.length; l++) {
+				List<PolygonRoi> rois = new ArrayList<PolygonRoi>();
+				found.add(rois);
+				detectors[l] = new IncrementalDetector(sampler.width(l), IncrementalDetector.EXACT,
+						Preprocessor.fromPrefs(1), RowThreshold.fromPrefs(), LinkSettings.fromPrefs(), rois::add);
+				if(output != null) {
+					output.mkdirs();
+					File file = new File(output, String.format("%s_line%d_%dx%d.raw", source.getShortTitle(),
+							l + 1, sampler.width(l), sampler.numFrames()));
+					kymographs[l] = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+				}
+			}
+			sampler.sample(blockRows, (line, rows, numRows) -> {
+				detectors[line].append(rows, numRows);
+				if(kymographs[line] != null)
+					kymographs[line].write(rows, 0, numRows * sampler.width(line));
+			});
+			for(IncrementalDetector detector: detectors) {
+				detector.finish();
+			}
+		} catch(Exception e) {
+			log.error("Failed on " + source.getTitle(), e);
+			return;
+		} finally {
+			for(OutputStream kymograph: kymographs) {
+				try {
+					if(kymograph != null)
+						kymograph.close();
+				} catch(IOException e) {
+					log.error(e);
+				}
+			}
+		}
+		log.info(String.format("%d frames in %.1f s", sampler.numFrames(), (System.nanoTime() - start) / 1e9));
+
+		ResultsTable table = new ResultsTable();
+		List<PolygonRoi> all = new ArrayList<PolygonRoi>();
+		int numMols = 0;
+		for(int l = 0; l < lines.length; l++) {
+			for(PolygonRoi roi: found.get(l)) {
+				numMols++;
+				if(l < StackFindSegments.MAX_GROUP)
+					roi.setGroup(l + 1);
+				table.incrementCounter();
+				table.setLabel("" + numMols, numMols - 1);
+				table.addValue("line", l + 1);
+				Rectangle bounds = roi.getBounds();
+				table.addValue("duration", bounds.getHeight());
+				table.addValue("Length(x)", bounds.getWidth());
+			}
+			all.addAll(found.get(l));
+		}
+		log.info("Found " + numMols + " molecules on " + lines.length + " lines");
+		FindSegments.addRois(new RoiManager(), all);
+		table.show("Durations");
+	}
+
+	private Roi[] lines() {
+		List<Roi> lines = new ArrayList<Roi>();
+		RoiManager roiManager = RoiManager.getInstance();
+		if(roiManager != null) {
+			for(Roi roi: roiManager.getRoisAsArray()) {
+				if(KymographSampler.isLine(roi))
+					lines.add(roi);
+			}
+		}
+		if(lines.isEmpty() && KymographSampler.isLine(source.getRoi())) {
+			lines.add(source.getRoi());
+		}
+		return lines.toArray(new Roi[lines.size()]);
+	}
+
+	/* Stack index of each time point, at the current channel and slice */
+	private int[] planes() {
+		int numFrames = source.getNFrames() > 1 ? source.getNFrames() : source.getStackSize();
+		int[] planes = new int[numFrames];
+		for(int t = 0; t < numFrames; t++) {
+			planes[t] = source.getNFrames() > 1
+					? source.getStackIndex(source.getChannel(), source.getSlice(), t + 1) : t + 1;
+		}
+		return planes;
+	}
+}
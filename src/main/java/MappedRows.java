@@ -0,0 +1,161 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+
+/**
+ * Reads blocks of rows of an uncompressed image file through memory mapping.
+ * <p>
+ * Only the rows asked for are mapped, so images much bigger than the heap, or
+ * than the 2 GB limit of a single mapping, can be read block by block. Rows
+ * are converted to 8-bit, 16 and 32 bit images being scaled from their
+ * minimum and maximum with the formulas of <code>ImageConverter.convertToGray8</code>,
+ * so that the pixels are those of the file opened in ImageJ with its
+ * display range reset.
+ * </p>
+ */
+class MappedRows implements Closeable {
+	final int width;
+	final int height;
+	private final int fileType;
+	private final int bytesPerPixel;
+	private final ByteOrder order;
+	private final long offset;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	private double min;
+	private double max;
+
+	/**
+	 * @param fileType one of FileInfo.GRAY8, GRAY16_UNSIGNED or GRAY32_FLOAT
+	 */
+	MappedRows(File path, int width, int height, int fileType, boolean littleEndian, long offset) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.fileType = fileType;
+		switch(fileType) {
+		case FileInfo.GRAY8: bytesPerPixel = 1; break;
+		case FileInfo.GRAY16_UNSIGNED: bytesPerPixel = 2; break;
+		case FileInfo.GRAY32_FLOAT: bytesPerPixel = 4; break;
+		default: throw new IOException("Unsupported pixel type: " + fileType);
+		}
+		this.order = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		this.offset = offset;
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		if(offset + (long)width * height * bytesPerPixel > channel.size()) {
+			close();
+			throw new IOException(path + " is smaller than a " + width + "x" + height + " image");
+		}
+		if(fileType != FileInfo.GRAY8) {
+			computeRange();
+		}
+	}
+
+	/**
+	 * Opens the first image of an uncompressed TIFF file.
+	 */
+	static MappedRows openTiff(File path) throws IOException {
+		FileInfo[] info = new TiffDecoder(path.getParent() + File.separator, path.getName()).getTiffInfo();
+		if(info == null || info.length == 0) {
+			throw new IOException("Not a TIFF file: " + path);
+		}
+		FileInfo fi = info[0];
+		if(fi.compression > FileInfo.COMPRESSION_NONE) {
+			throw new IOException("Compressed TIFF files cannot be mapped: " + path);
+		}
+		return new MappedRows(path, fi.width, fi.height, fi.fileType, fi.intelByteOrder, fi.getOffset());
+	}
+
+	private int rowBytes() {return width * bytesPerPixel;}
+
+	private ByteBuffer map(int from, int to) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+				offset + (long)from * rowBytes(), (long)(to - from) * rowBytes());
+		buffer.order(order);
+		return buffer;
+	}
+
+	/* Rows mapped at once when scanning the whole file */
+	private int blockRows() {return Math.max(1, (64 << 20) / rowBytes());}
+
+	private void computeRange() throws IOException {
+		min = Double.MAX_VALUE;
+		max = -Double.MAX_VALUE;
+		for(int from = 0; from < height; from += blockRows()) {
+			int to = Math.min(height, from + blockRows());
+			ByteBuffer buffer = map(from, to);
+			for(int i = 0, n = (to - from) * width; i < n; i++) {
+				double v = value(buffer, i);
+				/* ImageJ leaves infinities out of the range of float images */
+				if(Double.isInfinite(v))
+					continue;
+				if(v < min)
+					min = v;
+				if(v > max)
+					max = v;
+			}
+		}
+	}
+
+	private double value(ByteBuffer buffer, int i) {
+		switch(bytesPerPixel) {
+		case 1: return buffer.get(i) & 0xff;
+		case 2: return buffer.getShort(2 * i) & 0xffff;
+		default: return buffer.getFloat(4 * i);
+		}
+	}
+
+	/**
+	 * Reads rows [from, to[ as 8-bit pixels.
+	 */
+	byte[] read(int from, int to) throws IOException {
+		byte[] pixels = new byte[(to - from) * width];
+		ByteBuffer buffer = map(from, to);
+		if(fileType == FileInfo.GRAY8) {
+			buffer.get(pixels);
+			return pixels;
+		}
+		if(fileType == FileInfo.GRAY16_UNSIGNED) {
+			/* As ShortProcessor.create8BitImage */
+			int min = (int)this.min;
+			double scale = 256.0 / ((int)max - min + 1);
+			for(int i = 0; i < pixels.length; i++) {
+				int v = (buffer.getShort(2 * i) & 0xffff) - min;
+				v = (int)((v < 0 ? 0 : v) * scale + 0.5);
+				pixels[i] = (byte)(v > 255 ? 255 : v);
+			}
+		} else {
+			/* As FloatProcessor.create8BitImage, in float */
+			float min = (float)this.min;
+			float scale = 255f / ((float)max - min);
+			for(int i = 0; i < pixels.length; i++) {
+				float value = (buffer.getFloat(4 * i) - min) * scale;
+				int v = (int)((value < 0f ? 0f : value) + 0.5f);
+				pixels[i] = (byte)(v > 255 ? 255 : v);
+			}
+		}
+		return pixels;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
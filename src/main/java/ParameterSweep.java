@@ -0,0 +1,187 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.PolygonRoi;
+import ij.measure.ResultsTable;
+
+/**
+ * Finds molecules with every setting of a grid and compares the results.
+ * <p>
+ * The image is preprocessed once, with the settings of the Configuration,
+ * and the settings of the grid are run in parallel on the same pixels, one
+ * setting per task. Thresholds of the grid are fixed ones; the other
+ * settings are taken from the Configuration. The table has one row per
+ * setting with the number of molecules and the statistics of their
+ * durations.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Sweep detection settings", menuPath = "Plugins>Kymo>Sweep detection settings")
+public class ParameterSweep implements Command {
+	@Parameter
+	private ImagePlus source;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Thresholds (from to step)")
+	private String thresholds = "30 50 5";
+
+	@Parameter(label = "Max blank rows (from to step)")
+	private String yBlanks = "2 6 1";
+
+	@Parameter(label = "Max blank columns (from to step)")
+	private String xBlanks = "3 3 1";
+
+	@Parameter(label = "Min lengths (from to step)")
+	private String minLengths = "3 3 1";
+
+	public void run() {
+		double[] thresholdValues = range(thresholds);
+		double[] yBlankValues = range(yBlanks);
+		double[] xBlankValues = range(xBlanks);
+		double[] minLengthValues = range(minLengths);
+		if(thresholdValues == null || yBlankValues == null || xBlankValues == null || minLengthValues == null) {
+			log.error("Ranges must be given as: from to step");
+			return;
+		}
+
+		int threads = Prefs.getThreads();
+		FindSegments first = new FindSegments();
+		first.imp = source.duplicate();
+		first.cache = DetectionCache.shared();
+		first.threads = threads;
+		first.log = log;
+		long start = System.nanoTime();
+		PixelRows pixels = first.preprocess();
+		log.info(String.format("Preprocessed in %.1f ms", (System.nanoTime() - start) / 1e6));
+
+		RowThreshold base = RowThreshold.fromPrefs();
+		LinkSettings link = LinkSettings.fromPrefs();
+		List<double[]> grid = new ArrayList<double[]>();
+		for(double threshold: thresholdValues) {
+			for(double yBlank: yBlankValues) {
+				for(double xBlank: xBlankValues) {
+					for(double minLength: minLengthValues) {
+						grid.add(new double[] {threshold, yBlank, xBlank, minLength});
+					}
+				}
+			}
+		}
+		log.info("Sweeping " + grid.size() + " settings with " + threads + " workers");
+
+		ExecutorService pool = Executors.newWorkStealingPool(threads);
+		List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+		for(double[] setting: grid) {
+			FindSegments finder = new FindSegments();
+			finder.parallel = false;
+			finder.threads = 1;
+			finder.log = log;
+			finder.threshold = new RowThreshold(RowThreshold.Mode.FIXED, (float)setting[0],
+					base.percentile, base.factor, base.window);
+			finder.settings = new LinkSettings((int)setting[1], (int)setting[2], (int)setting[3],
+					link.maxJump, link.maxEndJump);
+			finder.localizer = new Localizer(Localizer.Mode.NONE, 1);
+			finder.debugImage = false;
+			results.add(pool.submit(() -> durations(finder.findMolecules(pixels))));
+		}
+
+		ResultsTable table = new ResultsTable();
+		try {
+			for(int i = 0; i < grid.size(); i++) {
+				double[] setting = grid.get(i);
+				double[] durations;
+				try {
+					durations = results.get(i).get();
+				} catch(Exception e) {
+					log.error("Failed with threshold " + setting[0] + ", max blank rows " + setting[1]
+							+ ", max blank columns " + setting[2] + ", min length " + setting[3], e);
+					continue;
+				}
+				table.incrementCounter();
+				table.addValue("threshold", setting[0]);
+				table.addValue("max blank rows", setting[1]);
+				table.addValue("max blank columns", setting[2]);
+				table.addValue("min length", setting[3]);
+				table.addValue("molecules", durations.length);
+				addStatistics(table, durations);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		log.info(String.format("Swept in %.1f ms", (System.nanoTime() - start) / 1e6));
+		table.show("Sweep of " + source.getTitle());
+	}
+
+	/**
+	 * @return the values from, from + step, ... up to to, or null if text is not "from to step"
+	 */
+	static double[] range(String text) {
+		String[] fields = text.trim().split("[\\s,;]+");
+		try {
+			double from = Double.parseDouble(fields[0]);
+			double to = fields.length > 1 ? Double.parseDouble(fields[1]) : from;
+			double step = fields.length > 2 ? Double.parseDouble(fields[2]) : 1;
+			if(fields.length > 3 || step <= 0 || to < from)
+				return null;
+			int n = (int)Math.floor((to - from) / step + 1e-9) + 1;
+			double[] values = new double[n];
+			for(int i = 0; i < n; i++) {
+				values[i] = from + i * step;
+			}
+			return values;
+		} catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static double[] durations(List<PolygonRoi> rois) {
+		double[] durations = new double[rois.size()];
+		for(int i = 0; i < durations.length; i++) {
+			durations[i] = rois.get(i).getBounds().getHeight();
+		}
+		return durations;
+	}
+
+	private static void addStatistics(ResultsTable table, double[] durations) {
+		int n = durations.length;
+		double sum = 0;
+		for(double d: durations) {
+			sum += d;
+		}
+		double mean = n == 0 ? Double.NaN : sum / n;
+		double squares = 0;
+		for(double d: durations) {
+			squares += (d - mean) * (d - mean);
+		}
+		Arrays.sort(durations);
+		table.addValue("mean duration", mean);
+		table.addValue("SD duration", n > 1 ? Math.sqrt(squares / (n - 1)) : Double.NaN);
+		table.addValue("median duration", n == 0 ? Double.NaN
+				: n % 2 == 1 ? durations[n / 2] : (durations[n / 2 - 1] + durations[n / 2]) / 2);
+		table.addValue("min duration", n == 0 ? Double.NaN : durations[0]);
+		table.addValue("max duration", n == 0 ? Double.NaN : durations[n - 1]);
+	}
+}
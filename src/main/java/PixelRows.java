@@ -0,0 +1,147 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.nio.ByteBuffer;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Direct read access to the backing array of an 8, 16 or 32 bit processor,
+ * or to 8-bit pixels in a buffer, such as a mapped file.
+ * <p>
+ * Unlike <code>ImagePlus.getPixel</code> nothing is allocated per read, and
+ * {@link #scan(int, float, PointConsumer)} walks a row in memory order.
+ * Integer values are unsigned, as returned by <code>getPixel</code>.
+ * </p>
+ */
+class PixelRows {
+	interface PointConsumer {
+		void accept(int x, int y, float value);
+	}
+
+	final int width;
+	final int height;
+	private final byte[] bytes;
+	private final short[] shorts;
+	private final float[] floats;
+	private final ByteBuffer buffer;
+
+	PixelRows(ImageProcessor ip) {
+		this(ip.getPixels(), ip.getWidth(), ip.getHeight());
+	}
+
+	PixelRows(Object pixels, int width, int height) {
+		this.width = width;
+		this.height = height;
+		bytes = pixels instanceof byte[] ? (byte[])pixels : null;
+		shorts = pixels instanceof short[] ? (short[])pixels : null;
+		floats = pixels instanceof float[] ? (float[])pixels : null;
+		buffer = null;
+		if(bytes == null && shorts == null && floats == null) {
+			throw new IllegalArgumentException("Unsupported pixel type: " + pixels);
+		}
+	}
+
+	/**
+	 * Reads 8-bit pixels from buffer, by absolute index, without copying them.
+	 */
+	PixelRows(ByteBuffer buffer, int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.buffer = buffer;
+		bytes = null;
+		shorts = null;
+		floats = null;
+	}
+
+	boolean isByte() {return bytes != null || buffer != null;}
+
+	float get(int x, int y) {
+		int i = y * width + x;
+		if(bytes != null)
+			return bytes[i] & 0xff;
+		if(shorts != null)
+			return shorts[i] & 0xffff;
+		if(buffer != null)
+			return buffer.get(i) & 0xff;
+		return floats[i];
+	}
+
+	/**
+	 * Copies pixels [from, to[ of row y, clamped to the row, into values.
+	 */
+	void read(int y, int from, int to, float[] values) {
+		int offset = y * width;
+		int x0 = Math.max(0, from), x1 = Math.min(width, to);
+		if(bytes != null) {
+			for(int x = x0; x < x1; x++) {
+				values[x - from] = bytes[offset + x] & 0xff;
+			}
+		} else if(shorts != null) {
+			for(int x = x0; x < x1; x++) {
+				values[x - from] = shorts[offset + x] & 0xffff;
+			}
+		} else if(buffer != null) {
+			for(int x = x0; x < x1; x++) {
+				values[x - from] = buffer.get(offset + x) & 0xff;
+			}
+		} else {
+			System.arraycopy(floats, offset + x0, values, x0 - from, x1 - x0);
+		}
+		for(int x = from; x < x0; x++) {
+			values[x - from] = values[x0 - from];
+		}
+		for(int x = x1; x < to; x++) {
+			values[x - from] = values[x1 - 1 - from];
+		}
+	}
+
+	/**
+	 * Gives every pixel of row y which is at least threshold, and its value, to consumer.
+	 *
+	 * @return the number of pixels given
+	 */
+	int scan(int y, float threshold, PointConsumer consumer) {
+		int offset = y * width;
+		int count = 0;
+		if(bytes != null) {
+			for(int x = 0; x < width; x++) {
+				int value = bytes[offset + x] & 0xff;
+				if(value >= threshold) {
+					consumer.accept(x, y, value);
+					count++;
+				}
+			}
+		} else if(shorts != null) {
+			for(int x = 0; x < width; x++) {
+				int value = shorts[offset + x] & 0xffff;
+				if(value >= threshold) {
+					consumer.accept(x, y, value);
+					count++;
+				}
+			}
+		} else if(buffer != null) {
+			for(int x = 0; x < width; x++) {
+				int value = buffer.get(offset + x) & 0xff;
+				if(value >= threshold) {
+					consumer.accept(x, y, value);
+					count++;
+				}
+			}
+		} else {
+			for(int x = 0; x < width; x++) {
+				float value = floats[offset + x];
+				if(value >= threshold) {
+					consumer.accept(x, y, value);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import ij.Prefs;
+import ij.process.Blitter;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Removes the background of an 8-bit kymograph and enhances its vertical ridges.
+ * <p>
+ * The background is a Gaussian blur of the image. In {@link Mode#IMAGEJ} mode
+ * the steps are run one after the other with the ImageJ filters, each one
+ * over the whole image. In {@link Mode#FUSED} mode the image is cut in tiles
+ * of rows, processed in parallel: each tile blurs only the rows it needs, then
+ * subtracts and convolves them while they are in cache, and writes its rows
+ * of the result. The fused blur is not downscaled like the ImageJ one, so
+ * values may differ by a few levels.
+ * </p>
+ * <p>
+ * {@link Mode#RECURSIVE} is the fused mode with the blur computed by the
+ * recursive filter of Young and van Vliet, whose cost per pixel does not
+ * depend on sigma.
+ * </p>
+ * <p>
+ * {@link #rows} preprocesses only some rows of an image, reading the rows
+ * they depend on, for images given a few rows at a time. In fused mode a
+ * {@link Context} keeps the rows blurred horizontally from call to call, a
+ * row blurred horizontally depending on no other row, so that only the
+ * vertical pass is done again near the last rows. Tiles are run on a pool
+ * kept by the preprocessor, whose threads stop when idle.
+ * </p>
+ */
+class Preprocessor {
+	enum Mode {IMAGEJ, FUSED, RECURSIVE}
+
+	static final double SIGMA = 10;
+	/* Relative weight of the Gaussian kernel tails left out */
+	static final double ACCURACY = 0.002;
+	static final int TILE_ROWS = 128;
+
+	/* Ridge kernel: RIDGE_ROWS rows of RIDGE, normalized by its sum */
+	static final float[] RIDGE = {-1, 1, 2, 1, -1};
+	static final int RIDGE_ROWS = 5;
+
+	final Mode mode;
+	final double sigma;
+	final int threads;
+	/* Computed once, so that one preprocessor can be shared by many images */
+	private final float[] kernel;
+	private final float[] coefficients;
+	private ForkJoinPool pool;
+
+	/**
+	 * Rows blurred horizontally of an image given a few rows at a time.
+	 */
+	static class Context {
+		/* Rows [first, first + count[ of the image */
+		private int first;
+		private int count;
+		private float[] rows = new float[0];
+
+		/**
+		 * Forgets the rows before row, which will not be asked again.
+		 */
+		void forget(int row, int width) {
+			int drop = Math.min(count, row - first);
+			if(drop <= 0)
+				return;
+			System.arraycopy(rows, drop * width, rows, 0, (count - drop) * width);
+			first += drop;
+			count -= drop;
+		}
+	}
+
+	Preprocessor(Mode mode, double sigma, int threads) {
+		this.mode = mode;
+		this.sigma = sigma;
+		this.threads = Math.max(1, threads);
+		kernel = gaussianKernel(sigma);
+		coefficients = recursiveCoefficients(sigma);
+	}
+
+	static Preprocessor fromPrefs(int threads) {
+		return new Preprocessor(Mode.valueOf(Prefs.get("kymo.preprocess", Mode.IMAGEJ.name())), Prefs.get("kymo.sigma", SIGMA), threads);
+	}
+
+	/**
+	 * @return the number of rows above and below a row of the result which
+	 *         it depends on: the blur radius plus half the ridge kernel.
+	 *         Only in {@link Mode#FUSED} mode are the rows then those of the
+	 *         whole image; in the other modes they are a close approximation.
+	 */
+	int radius() {
+		int radius = kernel.length - 1 + RIDGE_ROWS / 2;
+		/* ImageJ blurs large sigmas on a downscaled image, whose kernels reach a few pixels further */
+		return mode == Mode.IMAGEJ ? radius + 2 * (int)Math.ceil(sigma) : radius;
+	}
+
+	/**
+	 * @return the settings which change the result
+	 */
+	String key() {return mode + ":" + sigma;}
+
+	/**
+	 * Preprocesses ip, which must be 8-bit, in place.
+	 */
+	void run(ImageProcessor ip) {
+		if(mode == Mode.IMAGEJ) {
+			ImageProcessor blur = ip.duplicate();
+			blur.blurGaussian(sigma);
+			ip.copyBits(blur, 0, 0, Blitter.SUBTRACT);
+			float[] ridge = new float[RIDGE.length * RIDGE_ROWS];
+			for(int i = 0; i < ridge.length; i++) {
+				ridge[i] = RIDGE[i % RIDGE.length];
+			}
+			ip.convolve(ridge, RIDGE.length, RIDGE_ROWS);
+			return;
+		}
+		ip.setPixels(rows((byte[])ip.getPixels(), ip.getWidth(), ip.getHeight(), 0, ip.getHeight()));
+	}
+
+	/**
+	 * Preprocesses rows [from, to[ of source, an 8-bit image of height rows,
+	 * reading only the rows they depend on, up to {@link #radius()} rows
+	 * around them. The rows are those of the whole image in
+	 * {@link Mode#FUSED} mode only, the ImageJ blur being downscaled from the
+	 * block read and the recursive one starting at its edges.
+	 *
+	 * @return the preprocessed rows, width pixels each
+	 */
+	byte[] rows(byte[] source, int width, int height, int from, int to) {
+		return rows(source, width, height, from, to, 0, null);
+	}
+
+	/**
+	 * Preprocesses rows [from, to[ of source, keeping the rows blurred
+	 * horizontally in context in {@link Mode#FUSED} mode.
+	 *
+	 * @param offset the row of the image source starts at, which context is indexed by
+	 * @param context the rows of the image blurred so far, or null
+	 */
+	byte[] rows(byte[] source, int width, int height, int from, int to, int offset, Context context) {
+		if(mode == Mode.IMAGEJ) {
+			int blockFrom = Math.max(0, from - radius());
+			int blockTo = Math.min(height, to + radius());
+			ByteProcessor block = new ByteProcessor(width, blockTo - blockFrom,
+					Arrays.copyOfRange(source, blockFrom * width, blockTo * width));
+			run(block);
+			byte[] pixels = (byte[])block.getPixels();
+			return Arrays.copyOfRange(pixels, (from - blockFrom) * width, (to - blockFrom) * width);
+		}
+		byte[] result = new byte[(to - from) * width];
+		float[] horizontal = null;
+		int horizontalFrom = 0;
+		if(context != null && mode == Mode.FUSED) {
+			int radius = kernel.length - 1 + RIDGE_ROWS / 2;
+			horizontalFrom = Math.max(0, from - radius);
+			horizontal = blurHorizontal(source, width, horizontalFrom, Math.min(height, to + radius), offset, context);
+			horizontalFrom = context.first - offset;
+		}
+		/* Keep the rows blurred for the halos at most twice the tile rows */
+		int tileRows = Math.max(TILE_ROWS, 2 * kernel.length);
+		int numTiles = (to - from + tileRows - 1) / tileRows;
+		float[] blurred = horizontal;
+		int blurredFrom = horizontalFrom;
+		if(threads == 1 || numTiles <= 1) {
+			for(int t = 0; t < numTiles; t++) {
+				tile(source, blurred, blurredFrom, result, width, height, from + t * tileRows,
+						Math.min(to, from + (t + 1) * tileRows), from, kernel);
+			}
+		} else {
+			try {
+				pool().submit(() -> IntStream.range(0, numTiles).parallel()
+						.forEach(t -> tile(source, blurred, blurredFrom, result, width, height, from + t * tileRows,
+								Math.min(to, from + (t + 1) * tileRows), from, kernel))).get();
+			} catch(InterruptedException | ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return result;
+	}
+
+	/* Rows [from, to[ blurred horizontally, added to those of context which then starts at or before from */
+	private float[] blurHorizontal(byte[] source, int width, int from, int to, int offset, Context context) {
+		if(context.count == 0 || offset + from < context.first || offset + from > context.first + context.count) {
+			context.first = offset + from;
+			context.count = 0;
+		}
+		int known = context.first + context.count - offset;
+		if(to > known) {
+			int rows = to - (context.first - offset);
+			if(rows * width > context.rows.length) {
+				context.rows = Arrays.copyOf(context.rows, Math.max(rows * width, 2 * context.rows.length));
+			}
+			float[] added = blurHorizontal(source, width, known, to, kernel);
+			System.arraycopy(added, 0, context.rows, context.count * width, added.length);
+			context.count = rows;
+		}
+		return context.rows;
+	}
+
+	private synchronized ForkJoinPool pool() {
+		if(pool == null) {
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	/**
+	 * @return the right half of a normalized Gaussian kernel, centre first
+	 */
+	static float[] gaussianKernel(double sigma) {
+		int radius = (int)Math.ceil(sigma * Math.sqrt(-2 * Math.log(ACCURACY))) + 1;
+		float[] kernel = new float[radius + 1];
+		double sum = 0;
+		for(int i = 0; i <= radius; i++) {
+			kernel[i] = (float)Math.exp(-0.5 * i * i / (sigma * sigma));
+			sum += i == 0 ? kernel[i] : 2 * kernel[i];
+		}
+		for(int i = 0; i <= radius; i++) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
+
+	/**
+	 * @return the coefficients {B, b1/b0, b2/b0, b3/b0} of the recursive
+	 *         Gaussian filter of Young and van Vliet
+	 */
+	static float[] recursiveCoefficients(double sigma) {
+		double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330
+				: 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * Math.max(0.5, sigma));
+		double b0 = 1.57825 + 2.44413 * q + 1.4281 * q * q + 0.422205 * q * q * q;
+		double b1 = 2.44413 * q + 2.85619 * q * q + 1.26661 * q * q * q;
+		double b2 = -(1.4281 * q * q + 1.26661 * q * q * q);
+		double b3 = 0.422205 * q * q * q;
+		return new float[] {(float)(1 - (b1 + b2 + b3) / b0), (float)(b1 / b0), (float)(b2 / b0), (float)(b3 / b0)};
+	}
+
+	private static int clamp(int v, int max) {return v < 0 ? 0 : v > max ? max : v;}
+
+	/*
+	 * Computes rows [from, to[ of the result, which starts at row resultFrom,
+	 * from the rows blurred horizontally starting at row horizontalFrom if
+	 * given.
+	 */
+	private void tile(byte[] source, float[] horizontal, int horizontalFrom, byte[] result, int width, int height,
+			int from, int to, int resultFrom, float[] kernel) {
+		int radius = kernel.length - 1;
+		int ridge = RIDGE_ROWS / 2;
+		/* Rows of the subtracted image needed by the ridge kernel */
+		int subFrom = Math.max(0, from - ridge);
+		int subTo = Math.min(height, to + ridge);
+		/* Rows of the source needed by the blur */
+		int blurFrom = Math.max(0, subFrom - radius);
+		int blurTo = Math.min(height, subTo + radius);
+
+		float[] blurred = horizontal != null ? horizontal
+				: mode == Mode.RECURSIVE ? blurRecursive(source, width, height, blurFrom, blurTo, radius)
+				: blurHorizontal(source, width, blurFrom, blurTo, kernel);
+		int blurredFrom = horizontal != null ? horizontalFrom : blurFrom;
+
+		int[] subtracted = new int[(subTo - subFrom) * width];
+		float[] background = new float[width];
+		for(int y = subFrom; y < subTo; y++) {
+			if(mode == Mode.RECURSIVE) {
+				System.arraycopy(blurred, (y - blurFrom) * width, background, 0, width);
+			} else {
+				blurVertical(blurred, width, height, blurredFrom, y, kernel, background);
+			}
+			int offset = y * width;
+			int out = (y - subFrom) * width;
+			for(int x = 0; x < width; x++) {
+				int v = (source[offset + x] & 0xff) - (int)(background[x] + 0.5f);
+				subtracted[out + x] = v < 0 ? 0 : v;
+			}
+		}
+
+		float norm = 0;
+		for(float k: RIDGE) {
+			norm += k;
+		}
+		norm *= RIDGE_ROWS;
+		int half = RIDGE.length / 2;
+		int[] columns = new int[width + 2 * half];
+		for(int y = from; y < to; y++) {
+			for(int x = 0; x < columns.length; x++) {
+				int column = clamp(x - half, width - 1);
+				int sum = 0;
+				for(int dy = -ridge; dy <= ridge; dy++) {
+					sum += subtracted[(clamp(y + dy, height - 1) - subFrom) * width + column];
+				}
+				columns[x] = sum;
+			}
+			int offset = (y - resultFrom) * width;
+			for(int x = 0; x < width; x++) {
+				float sum = 0;
+				for(int k = 0; k < RIDGE.length; k++) {
+					sum += RIDGE[k] * columns[x + k];
+				}
+				float v = sum / norm + 0.5f;
+				result[offset + x] = (byte)(v < 0 ? 0 : v > 255 ? 255 : (int)v);
+			}
+		}
+	}
+
+	/* Horizontal pass of the Gaussian kernel over rows [from, to[ */
+	private static float[] blurHorizontal(byte[] source, int width, int from, int to, float[] kernel) {
+		int radius = kernel.length - 1;
+		float[] horizontal = new float[(to - from) * width];
+		float[] row = new float[width + 2 * radius];
+		for(int y = from; y < to; y++) {
+			int offset = y * width;
+			for(int x = 0; x < row.length; x++) {
+				row[x] = source[offset + clamp(x - radius, width - 1)] & 0xff;
+			}
+			int out = (y - from) * width;
+			for(int x = 0; x < width; x++) {
+				int c = x + radius;
+				float sum = kernel[0] * row[c];
+				for(int k = 1; k <= radius; k++) {
+					sum += kernel[k] * (row[c - k] + row[c + k]);
+				}
+				horizontal[out + x] = sum;
+			}
+		}
+		return horizontal;
+	}
+
+	/* Vertical pass of the Gaussian kernel giving row y, rows starting at from */
+	private static void blurVertical(float[] horizontal, int width, int height, int from, int y, float[] kernel, float[] background) {
+		int radius = kernel.length - 1;
+		int centre = (y - from) * width;
+		for(int x = 0; x < width; x++) {
+			background[x] = kernel[0] * horizontal[centre + x];
+		}
+		for(int k = 1; k <= radius; k++) {
+			int above = (clamp(y - k, height - 1) - from) * width;
+			int below = (clamp(y + k, height - 1) - from) * width;
+			float weight = kernel[k];
+			for(int x = 0; x < width; x++) {
+				background[x] += weight * (horizontal[above + x] + horizontal[below + x]);
+			}
+		}
+	}
+
+	/*
+	 * Recursive Gaussian blur of rows [from, to[, forward then backward in
+	 * each direction. The rows and the bottom of the image are extended by
+	 * pad clamped pixels, so that the backward passes start from the same
+	 * edges as the kernel. Columns are filtered a row at a time so the memory
+	 * is still read in order.
+	 */
+	private float[] blurRecursive(byte[] source, int width, int height, int from, int to, int pad) {
+		float[] c = coefficients;
+		float b = c[0], c1 = c[1], c2 = c[2], c3 = c[3];
+		int rows = to - from + (to == height ? pad : 0);
+		float[] blurred = new float[rows * width];
+		float[] row = new float[width + pad];
+		for(int y = 0; y < rows; y++) {
+			int in = Math.min(from + y, height - 1) * width;
+			float w1 = source[in] & 0xff, w2 = w1, w3 = w1;
+			for(int x = 0; x < row.length; x++) {
+				float v = b * (source[in + Math.min(x, width - 1)] & 0xff) + c1 * w1 + c2 * w2 + c3 * w3;
+				w3 = w2;
+				w2 = w1;
+				w1 = v;
+				row[x] = v;
+			}
+			w1 = w2 = w3 = row[row.length - 1];
+			for(int x = row.length - 1; x >= 0; x--) {
+				float v = b * row[x] + c1 * w1 + c2 * w2 + c3 * w3;
+				w3 = w2;
+				w2 = w1;
+				w1 = v;
+				row[x] = v;
+			}
+			System.arraycopy(row, 0, blurred, y * width, width);
+		}
+		for(int y = 0; y < rows; y++) {
+			int r1 = Math.max(0, y - 1) * width, r2 = Math.max(0, y - 2) * width, r3 = Math.max(0, y - 3) * width;
+			int offset = y * width;
+			for(int x = 0; x < width; x++) {
+				blurred[offset + x] = b * blurred[offset + x] + c1 * blurred[r1 + x] + c2 * blurred[r2 + x] + c3 * blurred[r3 + x];
+			}
+		}
+		for(int y = rows - 1; y >= 0; y--) {
+			int r1 = Math.min(rows - 1, y + 1) * width, r2 = Math.min(rows - 1, y + 2) * width, r3 = Math.min(rows - 1, y + 3) * width;
+			int offset = y * width;
+			for(int x = 0; x < width; x++) {
+				blurred[offset + x] = b * blurred[offset + x] + c1 * blurred[r1 + x] + c2 * blurred[r2 + x] + c3 * blurred[r3 + x];
+			}
+		}
+		return blurred;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
+
+/**
+ * Writes ROIs one at a time in the zip format of the RoiManager.
+ */
+class RoiZipWriter implements Closeable {
+	private final ZipOutputStream zip;
+	private final RoiEncoder encoder;
+	private int count;
+
+	RoiZipWriter(File file) throws IOException {
+		zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		encoder = new RoiEncoder(zip);
+	}
+
+	void write(Roi roi) throws IOException {
+		count++;
+		zip.putNextEntry(new ZipEntry(String.format("%05d-%s.roi", count, roi.getName())));
+		encoder.write(roi);
+		zip.closeEntry();
+	}
+
+	int count() {return count;}
+
+	@Override
+	public void close() throws IOException {
+		zip.close();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Arrays;
+
+import ij.Prefs;
+
+/**
+ * Detection threshold of each row of a kymograph.
+ * <p>
+ * In {@link Mode#FIXED} mode every row uses the same value. The adaptive modes
+ * keep a 256 bin histogram of the rows around the current one, updated
+ * incrementally as the row advances, and take the threshold from a percentile
+ * of the background or from Otsu's method. Pixels at or above the threshold
+ * are candidates.
+ * </p>
+ */
+class RowThreshold {
+	enum Mode {FIXED, PERCENTILE, OTSU}
+
+	static final int BINS = 256;
+	static final float THRESHOLD = 40;
+	static final double PERCENTILE = 90;
+	static final double FACTOR = 1.5;
+
+	final Mode mode;
+	final float value;
+	final double percentile;
+	final double factor;
+	final int window;
+
+	private final long[] histogram = new long[BINS];
+	private long total;
+	private PixelRows pixels;
+	private float min;
+	private float binWidth;
+	/* Rows currently in the histogram: [first, last[ */
+	private int first;
+	private int last;
+
+	/**
+	 * @param value the threshold in {@link Mode#FIXED} mode
+	 * @param percentile percentile of the histogram taken as background level
+	 * @param factor the threshold is the background level times this factor
+	 * @param window number of rows in the histogram, centred on the current one
+	 */
+	RowThreshold(Mode mode, float value, double percentile, double factor, int window) {
+		this.mode = mode;
+		this.value = value;
+		this.percentile = percentile;
+		this.factor = factor;
+		this.window = Math.max(1, window);
+	}
+
+	static RowThreshold fromPrefs() {
+		Mode mode = Mode.valueOf(Prefs.get("kymo.threshold.mode", Mode.FIXED.name()));
+		return new RowThreshold(mode,
+				(float)Prefs.get("kymo.threshold", THRESHOLD),
+				Prefs.get("kymo.threshold.percentile", PERCENTILE),
+				Prefs.get("kymo.threshold.factor", FACTOR),
+				(int)Prefs.get("kymo.threshold.window", 1));
+	}
+
+	/**
+	 * @return a threshold with the default settings, whatever the preferences
+	 */
+	static RowThreshold defaults() {
+		return new RowThreshold(Mode.FIXED, THRESHOLD, PERCENTILE, FACTOR, 1);
+	}
+
+	/**
+	 * @return the settings which change the thresholds
+	 */
+	String key() {return mode + ":" + value + ":" + percentile + ":" + factor + ":" + window;}
+
+	/**
+	 * @return a threshold with the same settings and started on the same
+	 *         pixels, with its own histogram, to be used on another thread
+	 */
+	RowThreshold copy() {
+		RowThreshold copy = new RowThreshold(mode, value, percentile, factor, window);
+		copy.pixels = pixels;
+		copy.min = min;
+		copy.binWidth = binWidth;
+		return copy;
+	}
+
+	void start(PixelRows pixels) {
+		this.pixels = pixels;
+		first = last = 0;
+		total = 0;
+		Arrays.fill(histogram, 0);
+		if(mode == Mode.FIXED)
+			return;
+		if(pixels.isByte()) {
+			min = 0;
+			binWidth = 1;
+		} else {
+			min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			for(int y = 0; y < pixels.height; y++) {
+				for(int x = 0; x < pixels.width; x++) {
+					float v = pixels.get(x, y);
+					if(v < min)
+						min = v;
+					if(v > max)
+						max = v;
+				}
+			}
+			binWidth = max > min ? (max - min) / (BINS - 1) : 1;
+		}
+	}
+
+	/**
+	 * @return the threshold of row y, rows being usually asked in increasing order
+	 */
+	float get(int y) {
+		if(mode == Mode.FIXED)
+			return value;
+		int from = Math.max(0, y - window / 2);
+		int to = Math.min(pixels.height, from + window);
+		if(from < first || from >= last) {
+			clear();
+			first = last = from;
+		}
+		while(first < from) {
+			addRow(first++, -1);
+		}
+		while(last < to) {
+			addRow(last++, 1);
+		}
+		int bin = mode == Mode.OTSU ? otsu() + 1 : percentileBin();
+		float threshold = min + bin * binWidth;
+		if(mode == Mode.PERCENTILE) {
+			threshold = (float)Math.max(threshold * factor, threshold + binWidth);
+		}
+		return threshold;
+	}
+
+	private void clear() {
+		while(first < last) {
+			addRow(first++, -1);
+		}
+	}
+
+	private void addRow(int y, int count) {
+		for(int x = 0; x < pixels.width; x++) {
+			int bin = (int)((pixels.get(x, y) - min) / binWidth);
+			histogram[bin < 0 ? 0 : bin >= BINS ? BINS - 1 : bin] += count;
+		}
+		total += count * pixels.width;
+	}
+
+	private int percentileBin() {
+		long rank = (long)Math.ceil(total * percentile / 100);
+		long sum = 0;
+		for(int bin = 0; bin < BINS; bin++) {
+			sum += histogram[bin];
+			if(sum >= rank)
+				return bin;
+		}
+		return BINS - 1;
+	}
+
+	/* Last bin of the background class maximizing the between-class variance */
+	private int otsu() {
+		double sumAll = 0;
+		for(int bin = 0; bin < BINS; bin++) {
+			sumAll += (double)bin * histogram[bin];
+		}
+		double sumBackground = 0;
+		long background = 0;
+		double best = -1;
+		int threshold = 0;
+		for(int bin = 0; bin < BINS; bin++) {
+			background += histogram[bin];
+			if(background == 0)
+				continue;
+			long foreground = total - background;
+			if(foreground == 0)
+				break;
+			sumBackground += (double)bin * histogram[bin];
+			double meanBackground = sumBackground / background;
+			double meanForeground = (sumAll - sumBackground) / foreground;
+			double diff = meanBackground - meanForeground;
+			double between = (double)background * foreground * diff * diff;
+			if(between > best) {
+				best = between;
+				threshold = bin;
+			}
+		}
+		if(best < 0) {
+			/* A single level: nothing stands out from the background */
+			for(int bin = BINS - 1; bin >= 0; bin--) {
+				if(histogram[bin] != 0)
+					return bin;
+			}
+		}
+		return threshold;
+	}
+}
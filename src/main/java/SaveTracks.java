@@ -0,0 +1,82 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+import ij.process.FloatPolygon;
+
+/**
+ * Save the molecules of the ROI Manager to a track file
+ * <p>
+ * Tracks are written one at a time by a {@link TrackWriter}, their points in
+ * time order, with the intensity of the pixel under each point when an
+ * image is open.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Save tracks", menuPath = "Plugins>Kymo>Save tracks")
+public class SaveTracks implements Command {
+	@Parameter
+	private RoiManager roiManager;
+
+	@Parameter(required = false)
+	private ImagePlus image;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Track file", style = "save")
+	private File output;
+
+	public void run() {
+		long start = System.nanoTime();
+		PixelRows pixels = null;
+		if(image != null) {
+			try {
+				pixels = new PixelRows(image.getProcessor());
+			} catch(IllegalArgumentException e) {
+				log.warn("Cannot read the intensities of " + image.getTitle() + ": " + e.getMessage());
+			}
+		}
+		Roi[] rois = roiManager.getRoisAsArray();
+		float[] intensities = new float[256];
+		try(TrackWriter writer = new TrackWriter(output, pixels != null)) {
+			for(Roi roi: rois) {
+				FloatPolygon polygon = roi.getFloatPolygon();
+				int n = polygon.npoints;
+				float[][] sorted = FragmentLinker.sortByRow(polygon.xpoints, polygon.ypoints, n);
+				if(pixels != null) {
+					if(n > intensities.length)
+						intensities = new float[Math.max(n, 2 * intensities.length)];
+					for(int k = 0; k < n; k++) {
+						int x = Math.round(sorted[0][k]);
+						int y = Math.round(sorted[1][k]);
+						intensities[k] = x >= 0 && x < pixels.width && y >= 0 && y < pixels.height ? pixels.get(x, y) : Float.NaN;
+					}
+				}
+				writer.write(roi.getName(), sorted[0], sorted[1], n, intensities);
+			}
+		} catch(IOException e) {
+			log.error(e);
+			return;
+		}
+		log.info(String.format("Saved %d tracks in %.1f ms", rois.length, (System.nanoTime() - start) / 1e6));
+	}
+}
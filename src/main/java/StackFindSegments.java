@@ -0,0 +1,132 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.gui.PolygonRoi;
+import ij.measure.ResultsTable;
+import ij.plugin.frame.RoiManager;
+import ij.process.ImageProcessor;
+
+/**
+ * Find molecules in every plane of a kymograph stack or hyperstack at once.
+ * <p>
+ * Planes are handed to a work-stealing pool, one plane per task, and all of
+ * them share the same preprocessor. The ROIs of a plane are set to its
+ * position and group, and the durations of all the planes are shown in one
+ * table with a plane column, next to a summary table of the molecules found
+ * in each plane.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Find Molecules in all planes", menuPath = "Plugins>Kymo>Find Molecules in all planes")
+public class StackFindSegments implements Command {
+	/* Highest group of a Roi */
+	static final int MAX_GROUP = 255;
+
+	@Parameter
+	private ImagePlus source;
+
+	@Parameter
+	private LogService log;
+
+	public void run() {
+		ImageStack stack = source.getStack();
+		int numPlanes = stack.getSize();
+		boolean hyperstack = source.isHyperStack();
+		int threads = Prefs.getThreads();
+		log.info("Finding molecules in " + numPlanes + " planes with " + threads + " workers");
+
+		/* Planes are processed in parallel, each one with a single thread */
+		Preprocessor preprocessor = Preprocessor.fromPrefs(1);
+		ExecutorService pool = Executors.newWorkStealingPool(threads);
+		List<Future<List<PolygonRoi>>> results = new ArrayList<Future<List<PolygonRoi>>>();
+		for(int n = 1; n <= numPlanes; n++) {
+			final int plane = n;
+			results.add(pool.submit(() -> findMolecules(stack, plane, preprocessor, log)));
+		}
+
+		RoiManager roiManager = new RoiManager();
+		ResultsTable table = new ResultsTable();
+		ResultsTable summary = new ResultsTable();
+		List<PolygonRoi> all = new ArrayList<PolygonRoi>();
+		int numMols = 0;
+		try {
+			for(int n = 1; n <= numPlanes; n++) {
+				List<PolygonRoi> rois;
+				try {
+					rois = results.get(n - 1).get();
+				} catch(Exception e) {
+					log.error("Failed on plane " + n, e);
+					continue;
+				}
+				String label = stack.getSliceLabel(n);
+				summary.incrementCounter();
+				summary.addValue("plane", n);
+				summary.addValue("label", label == null ? "" : label);
+				summary.addValue("molecules", rois.size());
+				/* Hyperstack ROIs are shown on their channel, slice and frame */
+				int[] position = hyperstack ? source.convertIndexToPosition(n) : null;
+				for(PolygonRoi roi: rois) {
+					numMols++;
+					if(position != null)
+						roi.setPosition(position[0], position[1], position[2]);
+					else
+						roi.setPosition(n);
+					if(n <= MAX_GROUP)
+						roi.setGroup(n);
+					table.incrementCounter();
+					table.setLabel("" + numMols, numMols - 1);
+					table.addValue("plane", n);
+					Rectangle bounds = roi.getBounds();
+					table.addValue("duration", bounds.getHeight());
+					table.addValue("Length(x)", bounds.getWidth());
+				}
+				all.addAll(rois);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		log.info("Found " + numMols + " molecules in " + numPlanes + " planes");
+
+		FindSegments.addRois(roiManager, all);
+		summary.show("Molecules per plane");
+		table.show("Durations");
+	}
+
+	private static List<PolygonRoi> findMolecules(ImageStack stack, int plane, Preprocessor preprocessor,
+			LogService log) throws Exception {
+		ImageProcessor ip = stack.getProcessor(plane);
+		FindSegments finder = new FindSegments();
+		/* The plane must not be preprocessed in place */
+		finder.imp = new ImagePlus(stack.getSliceLabel(plane), ip.getBitDepth() == 8 ? ip.duplicate() : ip.convertToByte(true));
+		finder.parallel = false;
+		finder.threads = 1;
+		finder.preprocessor = preprocessor;
+		finder.log = log;
+		List<PolygonRoi> rois = finder.findMolecules();
+		finder.stats.log(log, "plane " + plane);
+		return rois;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.Prefs;
+import ij.io.FileInfo;
+import ij.process.FloatPolygon;
+
+/**
+ * Find molecules in a kymograph file too big to be opened, block by block.
+ * <p>
+ * The file must be an uncompressed TIFF, or raw pixels when a width is given.
+ * ROIs and durations are written as molecules are found, and the tracks to
+ * a track file as well unless disabled.
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Find Molecules in large file", menuPath = "Plugins>Kymo>Find Molecules in large file", headless = true)
+public class StreamFindSegments implements Command {
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Kymograph (uncompressed TIFF or raw)")
+	private File input;
+
+	@Parameter(label = "Output directory", style = "directory")
+	private File output;
+
+	@Parameter(label = "Rows per block", min = "1")
+	private int blockRows = 4096;
+
+	@Parameter(label = "Raw width (0 for TIFF)", min = "0")
+	private int rawWidth = 0;
+
+	@Parameter(label = "Raw height", min = "0")
+	private int rawHeight = 0;
+
+	@Parameter(label = "Raw type", choices = {"8-bit", "16-bit", "32-bit"})
+	private String rawType = "8-bit";
+
+	@Parameter(label = "Raw little-endian")
+	private boolean rawLittleEndian = true;
+
+	@Parameter(label = "Raw header size", min = "0")
+	private long rawOffset = 0;
+
+	@Parameter(label = "Write track file")
+	private boolean writeTracks = true;
+
+	public void run() {
+		String name = input.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		output.mkdirs();
+
+		try(MappedRows rows = open();
+				RoiZipWriter rois = new RoiZipWriter(new File(output, base + "_rois.zip"));
+				TrackWriter tracks = writeTracks ? new TrackWriter(new File(output, base + TrackWriter.EXTENSION), false) : null;
+				PrintWriter csv = new PrintWriter(new File(output, base + "_durations.csv"), "UTF-8")) {
+			log.info("Streaming " + rows.width + "x" + rows.height + " by blocks of " + blockRows + " rows");
+			csv.println("molecule,duration,Length(x)");
+			int numMols = new StreamingDetector(rows, blockRows,
+					Preprocessor.fromPrefs(Prefs.getThreads()), RowThreshold.fromPrefs(), LinkSettings.fromPrefs()).detect(roi -> {
+				rois.write(roi);
+				if(tracks != null) {
+					FloatPolygon polygon = roi.getFloatPolygon();
+					tracks.write(roi.getName(), polygon.xpoints, polygon.ypoints, polygon.npoints, null);
+				}
+				Rectangle bounds = roi.getBounds();
+				csv.println(roi.getName() + "," + bounds.getHeight() + "," + bounds.getWidth());
+			});
+			log.info("Found " + numMols + " molecules");
+		} catch(IOException e) {
+			log.error(e);
+		}
+	}
+
+	private MappedRows open() throws IOException {
+		if(rawWidth == 0) {
+			return MappedRows.openTiff(input);
+		}
+		int type = rawType.startsWith("8") ? FileInfo.GRAY8
+				: rawType.startsWith("16") ? FileInfo.GRAY16_UNSIGNED : FileInfo.GRAY32_FLOAT;
+		return new MappedRows(input, rawWidth, rawHeight, type, rawLittleEndian, rawOffset);
+	}
+}
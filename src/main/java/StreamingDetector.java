@@ -0,0 +1,55 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.IOException;
+
+/**
+ * Finds the molecules of a kymograph too tall to be loaded, block of rows by
+ * block of rows.
+ * <p>
+ * Blocks are appended to an {@link IncrementalDetector}, which preprocesses
+ * each row with {@link IncrementalDetector#halo} rows above and below so that
+ * it sees the same neighbourhood as on the whole image, the molecules being
+ * exactly those of the whole image in fused mode. A molecule is
+ * emitted, and forgotten, as soon as it and all the molecules it shares
+ * pixels with can no longer be extended. Memory is thus bounded by the block
+ * size and the molecules crossing it, the ids and conflicts of emitted
+ * molecules being given to new ones.
+ * </p>
+ */
+class StreamingDetector {
+	private final MappedRows rows;
+	private final int blockRows;
+	private final Preprocessor preprocessor;
+	private final RowThreshold threshold;
+	private final LinkSettings settings;
+
+	StreamingDetector(MappedRows rows, int blockRows, Preprocessor preprocessor, RowThreshold threshold,
+			LinkSettings settings) {
+		this.rows = rows;
+		this.blockRows = Math.max(1, blockRows);
+		this.preprocessor = preprocessor;
+		this.threshold = threshold;
+		this.settings = settings;
+	}
+
+	/**
+	 * Detects the molecules, giving each one to consumer as soon as it is complete.
+	 *
+	 * @return the number of molecules
+	 */
+	int detect(IncrementalDetector.RoiConsumer consumer) throws IOException {
+		IncrementalDetector detector = new IncrementalDetector(rows.width, IncrementalDetector.EXACT,
+				preprocessor, threshold, settings, consumer);
+		for(int start = 0; start < rows.height; start += blockRows) {
+			int end = Math.min(rows.height, start + blockRows);
+			detector.append(rows.read(start, end), end - start);
+		}
+		return detector.finish();
+	}
+}
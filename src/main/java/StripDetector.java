@@ -0,0 +1,242 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Parallel version of the thresholding and linking of {@link FindSegments}.
+ * <p>
+ * The kymograph is cut in horizontal strips which are thresholded and linked
+ * at the same time, each with its own {@link TailIndex}. Inside a strip a
+ * pixel gets the local labels of the pixels it extends, a new label when it
+ * extends nothing, and a "seam" label when it extends a pixel of the previous
+ * strip, at most <code>maxYBlank</code> rows above. Seam labels are then
+ * resolved strip after strip, top to bottom, into the molecules of the
+ * previous strip, which gives exactly the molecules, points and conflicts of
+ * the sequential scan, as "Check parallel detection" verifies.
+ * </p>
+ */
+class StripDetector {
+	private final PixelRows pixels;
+	private final RowThreshold threshold;
+	private final LinkSettings settings;
+	private final int threads;
+
+	private class Strip {
+		final int from;
+		final int to;
+
+		/* Candidate pixels, in scan order, and their labels */
+		final IntList xs = new IntList();
+		final IntList ys = new IntList();
+		final IntList labelStart = new IntList();
+		final IntList labels = new IntList();
+
+		/* Per label: pixel which created it, and whether it is a seam label */
+		final IntList labelPixel = new IntList();
+		final IntList labelSeam = new IntList();
+
+		/* Per label: molecule ids it stands for, set when merging */
+		int[][] resolved;
+
+		/* Per pixel: molecule ids, set when merging */
+		final IntList moleculeStart = new IntList();
+		final IntList molecules = new IntList();
+
+		private TailIndex tails;
+		private TailIndex halo;
+
+		Strip(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		void link() {
+			RowThreshold t = threshold.copy();
+			tails = new TailIndex(pixels.width, settings.maxXBlank, settings.maxYBlank);
+			if(from > 0) {
+				halo = new TailIndex(pixels.width, settings.maxXBlank, settings.maxYBlank);
+				for(int y = Math.max(0, from - settings.maxYBlank); y < from; y++) {
+					pixels.scan(y, t.get(y), (x, row, value) -> halo.add(x, row, 0));
+				}
+			}
+			labelStart.add(0);
+			PixelRows.PointConsumer link = this::addPoint;
+			for(int y = from; y < to; y++) {
+				pixels.scan(y, t.get(y), link);
+			}
+			tails = null;
+			halo = null;
+		}
+
+		private void addPoint(int x, int y, float value) {
+			int pixel = xs.size();
+			xs.add(x);
+			ys.add(y);
+			int numMatches = tails.query(x, y);
+			int[] matches = tails.matches();
+			int start = labels.size();
+			for(int i = 0; i < numMatches; i++) {
+				labels.add(matches[i]);
+			}
+			boolean seam = halo != null && y < from + settings.maxYBlank && halo.query(x, y) > 0;
+			if(seam || numMatches == 0) {
+				labels.add(labelPixel.size());
+				labelPixel.add(pixel);
+				labelSeam.add(seam ? 1 : 0);
+			}
+			labelStart.add(labels.size());
+			for(int i = start; i < labels.size(); i++) {
+				tails.add(x, y, labels.get(i));
+			}
+		}
+
+		/**
+		 * Gives an id to the molecules starting in this strip and resolves the
+		 * seam labels against the previous strip, which must be merged already.
+		 *
+		 * @return the next molecule id
+		 */
+		int resolve(Strip previous, int nextId) {
+			TailIndex seam = null;
+			if(previous != null) {
+				seam = new TailIndex(pixels.width, settings.maxXBlank, settings.maxYBlank);
+				int first = previous.xs.size();
+				while(first > 0 && previous.ys.get(first - 1) >= from - settings.maxYBlank) {
+					first--;
+				}
+				for(int q = first; q < previous.xs.size(); q++) {
+					seam.add(previous.xs.get(q), previous.ys.get(q), q);
+				}
+			}
+			resolved = new int[labelPixel.size()][];
+			IntList ids = new IntList();
+			for(int l = 0; l < resolved.length; l++) {
+				if(labelSeam.get(l) == 0) {
+					resolved[l] = new int[] {nextId++};
+					continue;
+				}
+				int p = labelPixel.get(l);
+				int numMatches = seam.query(xs.get(p), ys.get(p));
+				int[] matches = seam.matches();
+				ids.clear();
+				for(int i = 0; i < numMatches; i++) {
+					previous.addMolecules(matches[i], ids);
+				}
+				ids.sortDistinct(0);
+				resolved[l] = ids.toArray();
+			}
+			return nextId;
+		}
+
+		/* Adds the molecule ids of pixel p, once its labels are resolved */
+		private void addMolecules(int p, IntList ids) {
+			for(int i = labelStart.get(p); i < labelStart.get(p + 1); i++) {
+				for(int id: resolved[labels.get(i)]) {
+					ids.add(id);
+				}
+			}
+		}
+
+		/**
+		 * Expands the labels of every pixel into sorted molecule ids.
+		 */
+		void expand() {
+			moleculeStart.add(0);
+			for(int p = 0; p < xs.size(); p++) {
+				int start = molecules.size();
+				addMolecules(p, molecules);
+				molecules.sortDistinct(start);
+				moleculeStart.add(molecules.size());
+			}
+		}
+	}
+
+	StripDetector(PixelRows pixels, RowThreshold threshold, LinkSettings settings, int threads) {
+		this.pixels = pixels;
+		this.threshold = threshold;
+		this.settings = settings;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @return the number of strips the image is cut in
+	 */
+	int numStrips() {
+		int minHeight = Math.max(settings.maxYBlank, 64);
+		return Math.max(1, Math.min(threads * 4, pixels.height / minHeight));
+	}
+
+	/**
+	 * @return the first row of strip s of numStrips, or the height for s == numStrips
+	 */
+	int stripStart(int s, int numStrips) {
+		return (int)((long)pixels.height * s / numStrips);
+	}
+
+	/**
+	 * Detects the molecules of the whole image.
+	 *
+	 * @param molecules receives the molecules, in the order of the sequential scan
+	 * @param conflicts receives the molecules sharing pixels
+	 * @return the number of candidate pixels
+	 */
+	long detect(List<FindSegments.Molecule> molecules, ConflictResolver conflicts)
+			throws InterruptedException, ExecutionException {
+		int numStrips = numStrips();
+		Strip[] strips = new Strip[numStrips];
+		for(int s = 0; s < numStrips; s++) {
+			strips[s] = new Strip(stripStart(s, numStrips), stripStart(s + 1, numStrips));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, numStrips).parallel().forEach(s -> strips[s].link())).get();
+
+			/* Seams only depend on the pixels just above, so this pass is short */
+			int nextId = 0;
+			for(int s = 0; s < numStrips; s++) {
+				Strip previous = s > 0 ? strips[s - 1] : null;
+				nextId = strips[s].resolve(previous, nextId);
+			}
+			pool.submit(() -> IntStream.range(0, numStrips).parallel().forEach(s -> strips[s].expand())).get();
+		} finally {
+			pool.shutdown();
+		}
+
+		long candidates = 0;
+		for(Strip strip: strips) {
+			candidates += strip.xs.size();
+			for(int p = 0; p < strip.xs.size(); p++) {
+				int x = strip.xs.get(p);
+				int y = strip.ys.get(p);
+				float intensity = pixels.get(x, y);
+				FindSegments.Molecule found = null;
+				for(int i = strip.moleculeStart.get(p); i < strip.moleculeStart.get(p + 1); i++) {
+					int id = strip.molecules.get(i);
+					FindSegments.Molecule m;
+					if(id == molecules.size()) {
+						m = new FindSegments.Molecule(conflicts.add(), x, y, intensity, settings);
+						molecules.add(m);
+					} else {
+						m = molecules.get(id);
+						m.addPoint(x, y, intensity);
+					}
+					if(found != null) {
+						conflicts.conflict(found.id, m.id);
+					}
+					found = m;
+				}
+			}
+		}
+		return candidates;
+	}
+}
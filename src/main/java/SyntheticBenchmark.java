@@ -0,0 +1,179 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.gui.PolygonRoi;
+import ij.io.FileInfo;
+import ij.process.FloatPolygon;
+
+/**
+ * Finds molecules in a synthetic kymograph and compares them to its tracks.
+ * <p>
+ * Reports recall, the fraction of tracks visible on more rows than the
+ * minimum length of a molecule which were found, and precision, the fraction
+ * of molecules following a track, with the throughput of the detection and
+ * the peak heap it used. Kymographs too big for an image are written to a
+ * raw file and streamed like with "Find Molecules in large file".
+ * </p>
+ * <p>
+ * <b>Please note that this API is <em>not</em> stable and will almost certainly
+ * change prior to the final <code>2.0.0</code> release!</b>
+ * </p>
+ */
+@Plugin(type = Command.class, name="Benchmark on synthetic kymograph", menuPath = "Plugins>Kymo>Benchmark on synthetic kymograph", headless = true)
+public class SyntheticBenchmark implements Command {
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Width", min = "1")
+	private int width = 512;
+
+	@Parameter(label = "Height", min = "1")
+	private int height = 16384;
+
+	@Parameter(label = "Molecules per column and 1000 rows")
+	private double density = 0.05;
+
+	@Parameter(label = "Diffusion (pixels^2/row)")
+	private double diffusion = 0.02;
+
+	@Parameter(label = "Drift (pixels/row)")
+	private double drift = 0;
+
+	@Parameter(label = "Blinking probability per row")
+	private double blinking = 0.01;
+
+	@Parameter(label = "Mean blink length (rows)")
+	private double meanGap = 3;
+
+	@Parameter(label = "Poisson noise")
+	private boolean poisson = true;
+
+	@Parameter(label = "Seed")
+	private long seed = 1;
+
+	@Parameter(label = "Stream from a raw file")
+	private boolean stream = false;
+
+	@Parameter(label = "Rows per block when streaming", min = "1")
+	private int blockRows = 4096;
+
+	@Parameter(label = "Matching tolerance (pixels)")
+	private float tolerance = 3;
+
+	/* Tracks found, and molecules following one */
+	private boolean[] found;
+	private long numMols;
+	private long numMatched;
+
+	public void run() {
+		KymographGenerator generator = new KymographGenerator(width, height);
+		generator.density = density;
+		generator.diffusion = diffusion;
+		generator.drift = drift;
+		generator.blinking = blinking;
+		generator.meanGap = meanGap;
+		generator.poisson = poisson;
+		generator.seed = seed;
+		List<KymographGenerator.Track> tracks = generator.generate();
+		found = new boolean[tracks.size()];
+		boolean raw = stream || (long)width * height > Integer.MAX_VALUE - 8;
+
+		try {
+			long time;
+			if(raw) {
+				File file = File.createTempFile("kymograph", ".raw");
+				file.deleteOnExit();
+				try {
+					generator.writeRaw(file, blockRows);
+					try(MappedRows rows = new MappedRows(file, width, height, FileInfo.GRAY8, true, 0)) {
+						resetPeakHeap();
+						long start = System.nanoTime();
+						new StreamingDetector(rows, blockRows, Preprocessor.fromPrefs(Prefs.getThreads()),
+								RowThreshold.fromPrefs(), LinkSettings.fromPrefs()).detect(roi -> evaluate(generator, roi));
+						time = System.nanoTime() - start;
+					}
+				} finally {
+					file.delete();
+				}
+			} else {
+				ImagePlus imp = generator.toImage();
+				FindSegments finder = new FindSegments();
+				finder.imp = imp;
+				finder.log = log;
+				resetPeakHeap();
+				long start = System.nanoTime();
+				List<PolygonRoi> rois = finder.findMolecules();
+				time = System.nanoTime() - start;
+				for(PolygonRoi roi: rois) {
+					evaluate(generator, roi);
+				}
+			}
+
+			int minYLen = LinkSettings.fromPrefs().minYLen;
+			int numTracks = 0;
+			int numFound = 0;
+			for(int i = 0; i < found.length; i++) {
+				if(tracks.get(i).numVisibleRows() > minYLen) {
+					numTracks++;
+					if(found[i])
+						numFound++;
+				}
+			}
+			log.info(width + "x" + height + (raw ? " streamed" : "") + ": "
+					+ numTracks + " tracks, " + numMols + " molecules");
+			log.info(String.format("recall %.3f, precision %.3f",
+					numTracks == 0 ? 1 : (double)numFound / numTracks, numMols == 0 ? 1 : (double)numMatched / numMols));
+			log.info(String.format("%.1f s, %.3g pixels/s, peak heap %d MB",
+					time / 1e9, (double)width * height * 1e9 / time, peakHeap() >> 20));
+		} catch(Exception e) {
+			log.error(e);
+		}
+	}
+
+	private void evaluate(KymographGenerator generator, PolygonRoi roi) {
+		numMols++;
+		FloatPolygon polygon = roi.getFloatPolygon();
+		int track = generator.match(polygon.xpoints, polygon.ypoints, polygon.npoints, tolerance);
+		if(track >= 0) {
+			numMatched++;
+			found[track] = true;
+		}
+	}
+
+	private static void resetPeakHeap() {
+		System.gc();
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	/* Sum of the peaks of the heap pools, which did not all peak together */
+	private static long peakHeap() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.util.Arrays;
+
+/**
+ * Linking index over the tail of every molecule.
+ * <p>
+ * Only the points of the last <code>maxYBlank</code> rows are kept, bucketed
+ * by x, so finding the molecules a pixel can extend only looks at a few
+ * buckets whatever the number of molecules already found. Entries older than
+ * the window are dropped as soon as their bucket is visited again.
+ * </p>
+ */
+class TailIndex {
+	private final int maxXBlank;
+	private final int maxYBlank;
+	private final int bucketWidth;
+
+	/* Per bucket: packed (x, y, id) triples. */
+	private final int[][] buckets;
+	private final int[] sizes;
+
+	private int[] matches = new int[8];
+	private int numMatches;
+
+	TailIndex(int width, int maxXBlank, int maxYBlank) {
+		this.maxXBlank = maxXBlank;
+		this.maxYBlank = maxYBlank;
+		this.bucketWidth = maxXBlank + 1;
+		int numBuckets = width / bucketWidth + 1;
+		buckets = new int[numBuckets][];
+		sizes = new int[numBuckets];
+	}
+
+	/**
+	 * Finds the molecules having a point at most <code>maxXBlank</code> columns
+	 * and <code>maxYBlank</code> rows before (x, y).
+	 *
+	 * @return the number of distinct molecule ids, available in ascending
+	 *         order from {@link #matches()}
+	 */
+	int query(int x, int y) {
+		numMatches = 0;
+		int minY = y - maxYBlank;
+		int first = Math.max(0, (x - maxXBlank) / bucketWidth);
+		int last = Math.min(buckets.length - 1, (x + maxXBlank) / bucketWidth);
+		for(int b = first; b <= last; b++) {
+			int[] bucket = buckets[b];
+			if(bucket == null)
+				continue;
+			int size = prune(b, minY);
+			for(int i = 0; i < size; i += 3) {
+				int px = bucket[i];
+				if(px >= x - maxXBlank && px <= x + maxXBlank) {
+					addMatch(bucket[i + 2]);
+				}
+			}
+		}
+		if(numMatches > 1) {
+			Arrays.sort(matches, 0, numMatches);
+			int distinct = 1;
+			for(int i = 1; i < numMatches; i++) {
+				if(matches[i] != matches[distinct - 1]) {
+					matches[distinct++] = matches[i];
+				}
+			}
+			numMatches = distinct;
+		}
+		return numMatches;
+	}
+
+	int[] matches() {return matches;}
+
+	void add(int x, int y, int id) {
+		int b = x / bucketWidth;
+		int[] bucket = buckets[b];
+		int size = sizes[b];
+		if(bucket == null) {
+			bucket = buckets[b] = new int[3 * 4];
+		} else if(size + 3 > bucket.length) {
+			size = prune(b, y - maxYBlank);
+			if(size + 3 > bucket.length) {
+				bucket = buckets[b] = Arrays.copyOf(bucket, bucket.length * 2);
+			}
+		}
+		bucket[size] = x;
+		bucket[size + 1] = y;
+		bucket[size + 2] = id;
+		sizes[b] = size + 3;
+	}
+
+	/* Drops the entries of bucket b that are above minY, keeping insertion order. */
+	private int prune(int b, int minY) {
+		int[] bucket = buckets[b];
+		int size = sizes[b];
+		int kept = 0;
+		for(int i = 0; i < size; i += 3) {
+			if(bucket[i + 1] >= minY) {
+				if(kept != i) {
+					bucket[kept] = bucket[i];
+					bucket[kept + 1] = bucket[i + 1];
+					bucket[kept + 2] = bucket[i + 2];
+				}
+				kept += 3;
+			}
+		}
+		sizes[b] = kept;
+		return kept;
+	}
+
+	private void addMatch(int id) {
+		if(numMatches == matches.length) {
+			matches = Arrays.copyOf(matches, numMatches * 2);
+		}
+		matches[numMatches++] = id;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+import ij.process.FloatPolygon;
+
+/**
+ * Geometry and intensity of molecule tracks, one column array per measure.
+ * <p>
+ * Duration is the number of rows from the first to the last point, length
+ * the number of columns, velocity the columns moved from the first to the
+ * last point per row, and path length the length of the polyline. Mean
+ * intensity is read from the pixels under the track, one per row, the
+ * column being interpolated between points. Tracks are measured in
+ * parallel, each one into its own row of the arrays, and the table is
+ * filled one column at a time. Tracks of a file are measured as they are
+ * read, the arrays growing, with the intensities of the file when there is
+ * no kymograph to read them from.
+ * </p>
+ */
+class TrackMeasurements {
+	String[] names;
+	double[] duration;
+	double[] length;
+	double[] velocity;
+	double[] pathLength;
+	double[] intensity;
+
+	TrackMeasurements(int size) {
+		names = new String[size];
+		duration = new double[size];
+		length = new double[size];
+		velocity = new double[size];
+		pathLength = new double[size];
+		intensity = new double[size];
+	}
+
+	int size() {return names.length;}
+
+	/**
+	 * @param pixels the kymograph the intensities are read from, or null
+	 */
+	static TrackMeasurements measure(Roi[] rois, PixelRows pixels, int threads)
+			throws InterruptedException, ExecutionException {
+		TrackMeasurements measurements = new TrackMeasurements(rois.length);
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.submit(() -> IntStream.range(0, rois.length).parallel().forEach(i -> {
+				FloatPolygon polygon = rois[i].getFloatPolygon();
+				measurements.names[i] = rois[i].getName();
+				measurements.measure(i, polygon.xpoints, polygon.ypoints, polygon.npoints, pixels);
+			})).get();
+		} finally {
+			pool.shutdown();
+		}
+		return measurements;
+	}
+
+	/**
+	 * Measures the tracks of a track file as they are read.
+	 *
+	 * @param pixels the kymograph the intensities are read from, or null for
+	 *        the intensities of the file, if any
+	 */
+	static TrackMeasurements read(File file, PixelRows pixels) throws IOException {
+		TrackMeasurements measurements = new TrackMeasurements(1024);
+		int count = 0;
+		try(TrackReader reader = new TrackReader(file)) {
+			while(reader.next()) {
+				if(count == measurements.size())
+					measurements.resize(2 * count);
+				measurements.names[count] = reader.name;
+				measurements.measure(count, reader.xs, reader.ys, reader.size, pixels);
+				if(pixels == null && reader.hasIntensity)
+					measurements.intensity[count] = mean(reader.intensities, reader.size);
+				count++;
+			}
+		}
+		measurements.resize(count);
+		return measurements;
+	}
+
+	private void resize(int size) {
+		names = Arrays.copyOf(names, size);
+		duration = Arrays.copyOf(duration, size);
+		length = Arrays.copyOf(length, size);
+		velocity = Arrays.copyOf(velocity, size);
+		pathLength = Arrays.copyOf(pathLength, size);
+		intensity = Arrays.copyOf(intensity, size);
+	}
+
+	/* Mean of the values which are numbers */
+	private static double mean(float[] values, int n) {
+		double sum = 0;
+		int count = 0;
+		for(int k = 0; k < n; k++) {
+			if(!Float.isNaN(values[k])) {
+				sum += values[k];
+				count++;
+			}
+		}
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * Measures track i, of n points in row order.
+	 */
+	void measure(int i, float[] xs, float[] ys, int n, PixelRows pixels) {
+		if(n == 0) {
+			duration[i] = length[i] = velocity[i] = pathLength[i] = intensity[i] = Double.NaN;
+			return;
+		}
+		float minX = xs[0], maxX = xs[0], minY = ys[0], maxY = ys[0];
+		double path = 0;
+		for(int k = 1; k < n; k++) {
+			minX = Math.min(minX, xs[k]);
+			maxX = Math.max(maxX, xs[k]);
+			minY = Math.min(minY, ys[k]);
+			maxY = Math.max(maxY, ys[k]);
+			path += Math.hypot(xs[k] - xs[k - 1], ys[k] - ys[k - 1]);
+		}
+		duration[i] = maxY - minY;
+		length[i] = maxX - minX;
+		float dy = ys[n - 1] - ys[0];
+		velocity[i] = dy != 0 ? (xs[n - 1] - xs[0]) / dy : Double.NaN;
+		pathLength[i] = path;
+		intensity[i] = pixels == null ? Double.NaN : meanIntensity(xs, ys, n, pixels);
+	}
+
+	/* Mean of the pixels under the track, one per row */
+	private static double meanIntensity(float[] xs, float[] ys, int n, PixelRows pixels) {
+		double sum = 0;
+		int count = 0;
+		for(int k = 0; k < n; k++) {
+			int from = Math.round(ys[k]);
+			int to = k + 1 < n ? Math.round(ys[k + 1]) : from + 1;
+			for(int y = from; y < to; y++) {
+				double f = k + 1 < n && ys[k + 1] != ys[k] ? (y - ys[k]) / (ys[k + 1] - ys[k]) : 0;
+				int x = (int)Math.round(xs[k] + f * (k + 1 < n ? xs[k + 1] - xs[k] : 0));
+				if(x >= 0 && x < pixels.width && y >= 0 && y < pixels.height) {
+					sum += pixels.get(x, y);
+					count++;
+				}
+			}
+		}
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * @return a table of the measurements, labelled with the names
+	 */
+	ResultsTable toTable() {
+		ResultsTable table = new ResultsTable(size());
+		for(int i = 0; i < size(); i++) {
+			table.setLabel(names[i], i);
+		}
+		table.setValues("duration", duration);
+		table.setValues("Length (x)", length);
+		table.setValues("velocity (x/row)", velocity);
+		table.setValues("path length", pathLength);
+		table.setValues("mean intensity", intensity);
+		return table;
+	}
+}
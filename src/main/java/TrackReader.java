@@ -0,0 +1,156 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+/**
+ * Reads the tracks of a file written by {@link TrackWriter}, one at a time.
+ * <p>
+ * The file is mapped by windows of up to {@link #WINDOW} bytes, so files of
+ * any size are read without copying them to the heap. {@link #next()} decodes
+ * the next track into arrays reused from track to track: the points of the
+ * current track are the first {@link #size} of {@link #xs} and {@link #ys},
+ * with {@link #intensities} when the file has them.
+ * </p>
+ */
+class TrackReader implements Closeable {
+	static final int WINDOW = 1 << 30;
+	/* A window is moved when less than this is left in it, the most a track may take */
+	static final int MARGIN = 64 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long length;
+	private MappedByteBuffer buffer;
+	private long base;
+
+	final boolean hasIntensity;
+	final int scale;
+
+	String name;
+	int size;
+	float[] xs = new float[256];
+	float[] ys = new float[256];
+	float[] intensities;
+
+	TrackReader(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		length = channel.size();
+		try {
+			map(0);
+			byte[] magic = new byte[TrackWriter.MAGIC.length];
+			buffer.get(magic);
+			if(!Arrays.equals(magic, TrackWriter.MAGIC))
+				throw new IOException("Not a track file: " + path);
+			int version = buffer.get();
+			if(version != TrackWriter.VERSION)
+				throw new IOException("Unsupported track file version " + version + ": " + path);
+			hasIntensity = (buffer.get() & TrackWriter.FLAG_INTENSITY) != 0;
+			scale = (int)readVarLong();
+		} catch(IOException | BufferUnderflowException e) {
+			close();
+			throw e instanceof IOException ? (IOException)e : new IOException("Truncated track file: " + path);
+		}
+		if(hasIntensity)
+			intensities = new float[xs.length];
+	}
+
+	private void map(long position) throws IOException {
+		base = position;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, length - position));
+	}
+
+	/**
+	 * Reads the next track.
+	 *
+	 * @return false at the end of the file
+	 */
+	boolean next() throws IOException {
+		long position = base + buffer.position();
+		if(position >= length)
+			return false;
+		if(buffer.remaining() < MARGIN && base + buffer.limit() < length)
+			map(position);
+		try {
+			/* Lengths are checked against the bytes left before allocating */
+			long nameLength = readVarLong();
+			if(nameLength < 0 || nameLength > buffer.remaining())
+				throw new IOException("Corrupt track name length " + nameLength + " at " + position);
+			byte[] bytes = new byte[(int)nameLength];
+			buffer.get(bytes);
+			name = new String(bytes, StandardCharsets.UTF_8);
+			long points = readVarLong();
+			if(points < 0 || points > buffer.remaining() / (hasIntensity ? 6 : 2))
+				throw new IOException("Corrupt track size " + points + " at " + position);
+			size = (int)points;
+			if(size > xs.length) {
+				int capacity = Math.max(size, 2 * xs.length);
+				xs = new float[capacity];
+				ys = new float[capacity];
+				if(hasIntensity)
+					intensities = new float[capacity];
+			}
+			long x = 0, y = 0;
+			for(int i = 0; i < size; i++) {
+				x += unzigzag(readVarLong());
+				y += unzigzag(readVarLong());
+				xs[i] = (float)((double)x / scale);
+				ys[i] = (float)((double)y / scale);
+			}
+			if(hasIntensity) {
+				for(int i = 0; i < size; i++) {
+					intensities[i] = buffer.getFloat();
+				}
+			}
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Truncated track, or track longer than " + MARGIN + " bytes, at " + position);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the polyline of the current track
+	 */
+	PolygonRoi toRoi() {
+		PolygonRoi roi = new PolygonRoi(new FloatPolygon(Arrays.copyOf(xs, size), Arrays.copyOf(ys, size), size), Roi.POLYLINE);
+		roi.setName(name);
+		return roi;
+	}
+
+	private static long unzigzag(long value) {return value >>> 1 ^ -(value & 1);}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for(int shift = 0;; shift += 7) {
+			if(shift >= 64)
+				throw new IOException("Corrupt varint at " + (base + buffer.position()));
+			byte b = buffer.get();
+			value |= (long)(b & 0x7f) << shift;
+			if(b >= 0)
+				return value;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
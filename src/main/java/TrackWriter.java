@@ -0,0 +1,115 @@
+/*
+ * To the extent possible under law, the ImageJ developers have waived
+ * all copyright and related or neighboring rights to this tutorial code.
+ *
+ * See the Unlicense for details:
+ *     https://unlicense.org/
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tracks one at a time in the binary track format.
+ * <p>
+ * The file starts with {@link #MAGIC}, a version byte, a flags byte telling
+ * whether points have an intensity, and the scale of the coordinates as a
+ * varint. Each track follows as its name, the varint length of its UTF-8
+ * bytes then the bytes, its number of points as a varint, then for each
+ * point x and y multiplied by the scale and rounded, as zigzag varints of
+ * the difference with the previous point, and at last the intensity of each
+ * point as a float when the file has them. Points along a track are close,
+ * so most differences fit in one or two bytes. There is no index: a file is
+ * read from start to end, see {@link TrackReader}.
+ * </p>
+ */
+class TrackWriter implements Closeable {
+	static final String EXTENSION = ".tracks";
+	static final byte[] MAGIC = {'K', 'Y', 'T', 'R'};
+	static final int VERSION = 1;
+	static final int FLAG_INTENSITY = 1;
+	/* Coordinates are kept to 1/256 pixel */
+	static final int SCALE = 256;
+
+	private final DataOutputStream out;
+	final boolean hasIntensity;
+	private int count;
+
+	TrackWriter(File file, boolean hasIntensity) throws IOException {
+		this.hasIntensity = hasIntensity;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(hasIntensity ? FLAG_INTENSITY : 0);
+		writeVarLong(SCALE);
+	}
+
+	/**
+	 * Writes the track of the first n points of xs and ys.
+	 *
+	 * @param intensities intensity of each point, ignored unless the file has them
+	 * @throws IOException if the track takes more than
+	 *         {@link TrackReader#MARGIN} bytes, the most a reader accepts
+	 */
+	void write(String name, float[] xs, float[] ys, int n, float[] intensities) throws IOException {
+		byte[] bytes = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+		long length = varLength(bytes.length) + bytes.length + varLength(n) + (hasIntensity ? 4L * n : 0);
+		long x = 0, y = 0;
+		for(int i = 0; i < n && length <= TrackReader.MARGIN; i++) {
+			long qx = Math.round((double)xs[i] * SCALE);
+			long qy = Math.round((double)ys[i] * SCALE);
+			length += varLength(zigzag(qx - x)) + varLength(zigzag(qy - y));
+			x = qx;
+			y = qy;
+		}
+		if(length > TrackReader.MARGIN)
+			throw new IOException("Track " + name + " of " + n + " points takes more than " + TrackReader.MARGIN + " bytes");
+
+		writeVarLong(bytes.length);
+		out.write(bytes);
+		writeVarLong(n);
+		x = 0;
+		y = 0;
+		for(int i = 0; i < n; i++) {
+			long qx = Math.round((double)xs[i] * SCALE);
+			long qy = Math.round((double)ys[i] * SCALE);
+			writeVarLong(zigzag(qx - x));
+			writeVarLong(zigzag(qy - y));
+			x = qx;
+			y = qy;
+		}
+		if(hasIntensity) {
+			for(int i = 0; i < n; i++) {
+				out.writeFloat(intensities == null ? Float.NaN : intensities[i]);
+			}
+		}
+		count++;
+	}
+
+	int count() {return count;}
+
+	private static long zigzag(long value) {return value << 1 ^ value >> 63;}
+
+	/* Number of bytes of value as a varint */
+	private static int varLength(long value) {
+		return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while((value & ~0x7fL) != 0) {
+			out.writeByte((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}